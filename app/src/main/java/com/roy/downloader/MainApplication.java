@@ -7,6 +7,9 @@ import android.util.Log;
 import androidx.multidex.MultiDexApplication;
 
 import com.roy.downloader.core.DownloadNotifier;
+import com.roy.downloader.core.HttpConnection;
+import com.roy.downloader.core.RepositoryHelper;
+import com.roy.downloader.core.settings.SettingsRepository;
 import com.roy.downloader.ui.errorreport.ActivityErrorReport;
 
 import org.acra.ACRA;
@@ -65,6 +68,9 @@ public class MainApplication extends MultiDexApplication {
         }
         ACRA.init(this, builder);
 
+        SettingsRepository pref = RepositoryHelper.getSettingsRepository(this);
+        HttpConnection.setupConnectionPool(pref.connectionReuse(), pref.maxConnections());
+
         DownloadNotifier downloadNotifier = DownloadNotifier.getInstance(this);
         downloadNotifier.makeNotifyChans();
         downloadNotifier.startUpdate();
@@ -17,9 +17,9 @@ import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 
 import com.roy.downloader.R;
+import com.roy.downloader.core.model.DownloadEngine;
 import com.roy.downloader.core.model.data.StatusCode;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
-import com.roy.downloader.core.model.data.entity.DownloadPiece;
 import com.roy.downloader.core.model.data.entity.InfoAndPieces;
 import com.roy.downloader.core.settings.SettingsRepository;
 import com.roy.downloader.core.storage.DataRepository;
@@ -143,7 +143,7 @@ public class DownloadNotifier {
     }
 
     public void startUpdate() {
-        disposables.add(repo.observeAllInfoAndPieces()
+        disposables.add(DownloadEngine.getInstance(appContext).observeAllInfoAndPieces()
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(this::update,
@@ -437,16 +437,8 @@ public class DownloadNotifier {
 
         /* Calculate and show progress */
 
-        int size = infoAndPieces.pieces.size();
-        long downloadBytes = 0;
-        long speed = 0;
-
-        if (size > 0) {
-            for (DownloadPiece piece : infoAndPieces.pieces) {
-                downloadBytes += info.getDownloadedBytes(piece);
-                speed += piece.speed;
-            }
-        }
+        long downloadBytes = infoAndPieces.getDownloadedBytes();
+        long speed = infoAndPieces.getSpeed();
 
         int progress;
         long ETA = Utils.calcETA(info.totalBytes, downloadBytes, speed);
@@ -3,14 +3,20 @@ package com.roy.downloader.core;
 import android.webkit.CookieManager;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.net.ssl.HttpsURLConnection;
 
 import static android.text.format.DateUtils.SECOND_IN_MILLIS;
+import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
+import static java.net.HttpURLConnection.HTTP_GONE;
 import static java.net.HttpURLConnection.HTTP_MOVED_PERM;
 import static java.net.HttpURLConnection.HTTP_MOVED_TEMP;
 import static java.net.HttpURLConnection.HTTP_SEE_OTHER;
@@ -25,6 +31,7 @@ public class HttpConnection implements Runnable {
     public static final int DEFAULT_TIMEOUT = (int) (20 * SECOND_IN_MILLIS);
     public static final int HTTP_TEMPORARY_REDIRECT = 307;
     public static final int HTTP_PERMANENT_REDIRECT = 308;
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
 
     private URL url;
     private final TLSSocketFactory socketFactory;
@@ -32,6 +39,12 @@ public class HttpConnection implements Runnable {
     private int timeout = DEFAULT_TIMEOUT;
     private String referer;
     private boolean contentRangeLength = false;
+    private boolean keepAlive = false;
+    private String method;
+    private HttpURLConnection warmConn;
+    private boolean detached = false;
+    private volatile HttpURLConnection curConn;
+    private volatile boolean aborted = false;
 
     public interface Listener {
         void onConnectionCreated(HttpURLConnection conn);
@@ -47,7 +60,18 @@ public class HttpConnection implements Runnable {
 
     public HttpConnection(String url) throws MalformedURLException, GeneralSecurityException {
         this.url = new URL(url);
-        this.socketFactory = new TLSSocketFactory();
+        /* Pooled connections can only be reused with the same socket factory */
+        this.socketFactory = TLSSocketFactory.getInstance();
+    }
+
+    /*
+     * Configures the platform connection pool. Must be called
+     * before the first connection, since the pool is created once
+     */
+
+    public static void setupConnectionPool(boolean keepAlive, int maxIdleConnections) {
+        System.setProperty("http.keepAlive", Boolean.toString(keepAlive));
+        System.setProperty("http.maxConnections", Integer.toString(maxIdleConnections));
     }
 
     public void setReferer(String referer) {
@@ -76,14 +100,90 @@ public class HttpConnection implements Runnable {
         this.timeout = timeout;
     }
 
+    /*
+     * Return the connection to the pool after the response body has been
+     * read, so that the next request to the same host doesn't need
+     * a new TCP and TLS handshake. Otherwise the connection is closed
+     */
+
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /*
+     * The request method, GET by default
+     */
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    /*
+     * Handle the response of an already sent request instead of sending
+     * a new one (see WarmConnections). The connection is closed after
+     * the response has been handled
+     */
+
+    public void setWarmConnection(HttpURLConnection conn) {
+        this.warmConn = conn;
+    }
+
+    /*
+     * Called from Listener.onResponseHandle() to keep the connection open after
+     * the listener returns. The listener becomes responsible for disconnecting it
+     */
+
+    public void detach() {
+        detached = true;
+    }
+
+    /*
+     * Cancel the request from another thread. The socket is closed,
+     * so that the blocking read fails immediately and the connection
+     * is never returned to the pool
+     */
+
+    public void abort() {
+        aborted = true;
+        HttpURLConnection conn = curConn;
+        if (conn != null)
+            conn.disconnect();
+    }
+
     @Override
     public void run() {
+        if (warmConn != null) {
+            runWarm();
+            return;
+        }
+
         var redirectionCount = 0;
         var requestContentRange = false;
+        /* Go straight to the target of the known redirect chain */
+        var redirectCache = RedirectCache.getInstance();
+        var originalUrl = url;
+        var cachedUrl = redirectCache.get(originalUrl.toString());
+        if (cachedUrl != null) {
+            try {
+                url = new URL(cachedUrl);
+            } catch (MalformedURLException e) {
+                redirectCache.remove(originalUrl.toString());
+                cachedUrl = null;
+            }
+        }
+        /* The followed redirects: the URL of each hop and whether the hop is permanent */
+        var redirectUrls = new ArrayList<String>();
+        var redirectPermanent = new ArrayList<Boolean>();
         while (redirectionCount++ < MAX_REDIRECTS) {
             HttpURLConnection conn = null;
             try {
                 conn = (HttpURLConnection) url.openConnection();
+                curConn = conn;
+                if (aborted)
+                    throw new InterruptedIOException("Connection aborted");
+                HttpMetrics.onRequest(conn instanceof HttpsURLConnection);
+                if (method != null)
+                    conn.setRequestMethod(method);
                 conn.setInstanceFollowRedirects(false);
                 conn.setConnectTimeout(timeout);
                 conn.setReadTimeout(timeout);
@@ -115,16 +215,26 @@ public class HttpConnection implements Runnable {
                 switch (responseCode) {
                     case HTTP_MOVED_PERM, HTTP_MOVED_TEMP, HTTP_SEE_OTHER, HTTP_TEMPORARY_REDIRECT, HTTP_PERMANENT_REDIRECT -> {
                         String location = conn.getHeaderField("Location");
+                        boolean permanently = responseCode == HTTP_MOVED_PERM
+                                || responseCode == HTTP_PERMANENT_REDIRECT;
+                        redirectUrls.add(url.toString());
+                        redirectPermanent.add(permanently);
                         url = new URL(url, location);
                         if (listener != null)
-                            listener.onMoved(
-                                    url.toString(),
-                                    responseCode == HTTP_MOVED_PERM
-                                            || responseCode == HTTP_PERMANENT_REDIRECT
-                            );
+                            listener.onMoved(url.toString(), permanently);
                         continue;
                     }
                     default -> {
+                        if (cachedUrl != null && (responseCode == HTTP_FORBIDDEN ||
+                                responseCode == HTTP_GONE)) {
+                            /* The cached target has probably expired, follow the chain again */
+                            redirectCache.remove(originalUrl.toString());
+                            url = originalUrl;
+                            cachedUrl = null;
+                            continue;
+                        }
+                        if (responseCode / 100 == 2)
+                            cacheRedirects(redirectUrls, redirectPermanent);
                         if (requestContentRange) {
                             if (responseCode != HttpURLConnection.HTTP_OK &&
                                     responseCode != HttpURLConnection.HTTP_PARTIAL) {
@@ -155,12 +265,71 @@ public class HttpConnection implements Runnable {
                 return;
 
             } finally {
-                if (conn != null)
-                    conn.disconnect();
+                if (conn != null && !detached)
+                    release(conn);
+                curConn = null;
             }
         }
 
         if (listener != null)
             listener.onTooManyRedirects();
     }
+
+    private void runWarm() {
+        HttpURLConnection conn = warmConn;
+        warmConn = null;
+        curConn = conn;
+        try {
+            if (aborted)
+                throw new InterruptedIOException("Connection aborted");
+            int responseCode = conn.getResponseCode();
+            if (listener != null)
+                listener.onResponseHandle(conn, responseCode, conn.getResponseMessage());
+
+        } catch (IOException e) {
+            if (listener != null)
+                listener.onIOException(e);
+
+        } finally {
+            /* The response is rarely read to the end, so it can't be returned to the pool */
+            conn.disconnect();
+            curConn = null;
+        }
+    }
+
+    /*
+     * Every URL of the chain, not only the first one, leads to the final URL,
+     * because the download URL can be replaced by a permanent redirect target.
+     * The chain from a URL is permanent only if all the following hops are
+     */
+
+    private void cacheRedirects(List<String> redirectUrls, List<Boolean> redirectPermanent) {
+        var redirectCache = RedirectCache.getInstance();
+        var permanent = true;
+        for (int i = redirectUrls.size() - 1; i >= 0; i--) {
+            permanent &= redirectPermanent.get(i);
+            redirectCache.put(redirectUrls.get(i), url.toString(), permanent);
+        }
+    }
+
+    private void release(HttpURLConnection conn) {
+        if (!keepAlive || aborted) {
+            conn.disconnect();
+            return;
+        }
+
+        /*
+         * Closing the body returns the connection to the pool
+         * if the body has been read to the end
+         */
+        try {
+            InputStream in = conn.getErrorStream();
+            if (in == null)
+                in = conn.getInputStream();
+            in.close();
+
+        } catch (IOException e) {
+            conn.disconnect();
+        }
+    }
 }
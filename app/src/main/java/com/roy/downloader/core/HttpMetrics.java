@@ -0,0 +1,97 @@
+package com.roy.downloader.core;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Process-wide counters of HTTP connections, used to evaluate connection reuse
+ * and TLS session resumption. Only HTTPS requests are taken into account for the
+ * reuse rate, because new connections are counted by the TLS socket factory.
+ */
+
+public class HttpMetrics {
+    private static final AtomicLong numRequests = new AtomicLong();
+    private static final AtomicLong numHttpsRequests = new AtomicLong();
+    private static final AtomicLong numTlsSockets = new AtomicLong();
+    private static final AtomicLong numHandshakes = new AtomicLong();
+    private static final AtomicLong numResumedHandshakes = new AtomicLong();
+    /* ms */
+    private static final AtomicLong totalHandshakeTime = new AtomicLong();
+    private static final AtomicLong totalResumedHandshakeTime = new AtomicLong();
+
+    static void onRequest(boolean https) {
+        numRequests.incrementAndGet();
+        if (https)
+            numHttpsRequests.incrementAndGet();
+    }
+
+    static void onTlsSocketCreated() {
+        numTlsSockets.incrementAndGet();
+    }
+
+    static void onHandshakeCompleted(boolean resumed, long time) {
+        numHandshakes.incrementAndGet();
+        totalHandshakeTime.addAndGet(time);
+        if (resumed) {
+            numResumedHandshakes.incrementAndGet();
+            totalResumedHandshakeTime.addAndGet(time);
+        }
+    }
+
+    public static long getNumRequests() {
+        return numRequests.get();
+    }
+
+    /*
+     * Returns the share of HTTPS requests that were sent over an already open connection
+     */
+
+    public static double getReuseHitRate() {
+        long requests = numHttpsRequests.get();
+        if (requests == 0)
+            return 0;
+
+        long reused = Math.max(requests - numTlsSockets.get(), 0);
+
+        return (double) reused / requests;
+    }
+
+    public static long getNumHandshakes() {
+        return numHandshakes.get();
+    }
+
+    public static long getNumResumedHandshakes() {
+        return numResumedHandshakes.get();
+    }
+
+    /*
+     * Average handshake time of full and resumed handshakes respectively, in ms
+     */
+
+    public static long getAvgFullHandshakeTime() {
+        long full = numHandshakes.get() - numResumedHandshakes.get();
+
+        return (full <= 0 ? 0 : (totalHandshakeTime.get() - totalResumedHandshakeTime.get()) / full);
+    }
+
+    public static long getAvgResumedHandshakeTime() {
+        long resumed = numResumedHandshakes.get();
+
+        return (resumed == 0 ? 0 : totalResumedHandshakeTime.get() / resumed);
+    }
+
+    @NonNull
+    public static String dump() {
+        return "HttpMetrics{" +
+                "numRequests=" + numRequests.get() +
+                ", numHttpsRequests=" + numHttpsRequests.get() +
+                ", numTlsSockets=" + numTlsSockets.get() +
+                ", reuseHitRate=" + getReuseHitRate() +
+                ", numHandshakes=" + numHandshakes.get() +
+                ", numResumedHandshakes=" + numResumedHandshakes.get() +
+                ", avgFullHandshakeTime=" + getAvgFullHandshakeTime() +
+                ", avgResumedHandshakeTime=" + getAvgResumedHandshakeTime() +
+                '}';
+    }
+}
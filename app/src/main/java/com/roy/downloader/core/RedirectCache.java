@@ -0,0 +1,77 @@
+package com.roy.downloader.core;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Process-wide cache of resolved redirect chains, keyed by the URL that was
+ * requested. It allows the metadata fetch, pieces and retries of a download
+ * to go straight to the final URL. A chain of permanent redirects is kept
+ * for a long time; if any hop is temporary, the target is kept only briefly,
+ * since temporary targets (e.g. signed CDN links) tend to expire.
+ */
+
+public class RedirectCache {
+    private static final int MAX_ENTRIES = 64;
+    private static final long PERMANENT_TTL = 24 * 60 * 60 * 1000; /* ms */
+    private static final long TEMPORARY_TTL = 5 * 60 * 1000; /* ms */
+
+    private static final RedirectCache INSTANCE = new RedirectCache();
+
+    /* In access order, so that the least recently used entry is evicted */
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    private static class Entry {
+        final String target;
+        final long expireTime;
+
+        Entry(String target, long expireTime) {
+            this.target = target;
+            this.expireTime = expireTime;
+        }
+    }
+
+    public static RedirectCache getInstance() {
+        return INSTANCE;
+    }
+
+    private RedirectCache() {
+    }
+
+    @Nullable
+    public synchronized String get(@NonNull String url) {
+        Entry entry = entries.get(url);
+        if (entry == null)
+            return null;
+
+        if (SystemClock.elapsedRealtime() >= entry.expireTime) {
+            entries.remove(url);
+            return null;
+        }
+
+        return entry.target;
+    }
+
+    public synchronized void put(@NonNull String url, @NonNull String target, boolean permanent) {
+        if (url.equals(target))
+            return;
+
+        long ttl = (permanent ? PERMANENT_TTL : TEMPORARY_TTL);
+        entries.put(url, new Entry(target, SystemClock.elapsedRealtime() + ttl));
+    }
+
+    public synchronized void remove(@NonNull String url) {
+        entries.remove(url);
+    }
+}
@@ -3,27 +3,47 @@ package com.roy.downloader.core
 import java.io.IOException
 import java.net.InetAddress
 import java.net.Socket
+import java.security.GeneralSecurityException
 import javax.net.ssl.SSLContext
 import javax.net.ssl.SSLSocket
 import javax.net.ssl.SSLSocketFactory
 
 /*
  * SSL handshake error solution: https://www.freshbytelabs.com/2018/09/how-to-solve-sslhandshakeexception-in.html
+ *
+ * One instance is shared by the whole process, so that the client session cache
+ * allows to resume TLS sessions (session IDs and tickets) instead of doing
+ * a full handshake for every connection.
  */
-class TLSSocketFactory : SSLSocketFactory() {
+class TLSSocketFactory private constructor() : SSLSocketFactory() {
     private val delegate: SSLSocketFactory
 
     init {
         val context = SSLContext.getInstance("TLS")
         context.init(null, null, null)
-        val sslSessionContext = context.serverSessionContext
-        val sessionCacheSize = sslSessionContext.sessionCacheSize
-        if (sessionCacheSize > 0) {
-            sslSessionContext.sessionCacheSize = 0
-        }
+        val clientSessionContext = context.clientSessionContext
+        clientSessionContext.sessionCacheSize = SESSION_CACHE_SIZE
+        clientSessionContext.sessionTimeout = SESSION_TIMEOUT
         delegate = context.socketFactory
     }
 
+    companion object {
+        private const val SESSION_CACHE_SIZE = 64
+        private const val SESSION_TIMEOUT = 24 * 60 * 60 /* 24 h */
+        private val PROTOCOLS = arrayOf("TLSv1.1", "TLSv1.2", "TLSv1.3")
+
+        @Volatile
+        private var instance: TLSSocketFactory? = null
+
+        @JvmStatic
+        @Throws(GeneralSecurityException::class)
+        fun getInstance(): TLSSocketFactory {
+            return instance ?: synchronized(this) {
+                instance ?: TLSSocketFactory().also { instance = it }
+            }
+        }
+    }
+
     override fun getDefaultCipherSuites(): Array<String> {
         return delegate.defaultCipherSuites
     }
@@ -73,7 +93,20 @@ class TLSSocketFactory : SSLSocketFactory() {
     }
 
     private fun enableTLSOnSocket(socket: Socket): Socket {
-        if (socket is SSLSocket) socket.enabledProtocols = arrayOf("TLSv1.1", "TLSv1.2")
+        if (socket is SSLSocket) {
+            /* TLS 1.3 is enabled only where the platform supports it */
+            val supported = socket.supportedProtocols.toSet()
+            socket.enabledProtocols = PROTOCOLS.filter { it in supported }.toTypedArray()
+            HttpMetrics.onTlsSocketCreated()
+
+            val createTime = System.currentTimeMillis()
+            socket.addHandshakeCompletedListener { event ->
+                val now = System.currentTimeMillis()
+                /* A resumed session was created before this socket */
+                val resumed = event.session.creationTime < createTime
+                HttpMetrics.onHandshakeCompleted(resumed, now - createTime)
+            }
+        }
         return socket
     }
 }
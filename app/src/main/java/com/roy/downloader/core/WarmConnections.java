@@ -0,0 +1,105 @@
+package com.roy.downloader.core;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * Process-wide registry of open responses that begin at the first byte of a
+ * download, keyed by the download ID. The metadata probe leaves its response
+ * here, so that the first piece continues reading it instead of sending a new
+ * request. A response that isn't taken in time is closed, since the server
+ * can drop an idle connection anyway.
+ */
+
+public class WarmConnections {
+    private static final long MAX_IDLE_TIME = 10 * 1000; /* ms */
+
+    private static final WarmConnections INSTANCE = new WarmConnections();
+
+    private final HashMap<UUID, Entry> entries = new HashMap<>();
+
+    private static class Entry {
+        final HttpURLConnection conn;
+        final long expireTime;
+
+        Entry(HttpURLConnection conn, long expireTime) {
+            this.conn = conn;
+            this.expireTime = expireTime;
+        }
+    }
+
+    public static WarmConnections getInstance() {
+        return INSTANCE;
+    }
+
+    private WarmConnections() {
+    }
+
+    public void put(@NonNull UUID id, @NonNull HttpURLConnection conn) {
+        put(id, conn, MAX_IDLE_TIME);
+    }
+
+    /*
+     * The connection is closed if it isn't taken within the given time, ms
+     */
+
+    public void put(@NonNull UUID id, @NonNull HttpURLConnection conn, long maxIdleTime) {
+        Entry old;
+        synchronized (this) {
+            closeExpired();
+            old = entries.put(id, new Entry(conn, SystemClock.elapsedRealtime() + maxIdleTime));
+        }
+        if (old != null)
+            old.conn.disconnect();
+    }
+
+    /*
+     * The caller becomes responsible for disconnecting the returned connection
+     */
+
+    @Nullable
+    public HttpURLConnection take(@NonNull UUID id) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(id);
+        }
+        if (entry == null)
+            return null;
+
+        if (SystemClock.elapsedRealtime() >= entry.expireTime) {
+            entry.conn.disconnect();
+            return null;
+        }
+
+        return entry.conn;
+    }
+
+    public void remove(@NonNull UUID id) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(id);
+        }
+        if (entry != null)
+            entry.conn.disconnect();
+    }
+
+    private void closeExpired() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Map.Entry<UUID, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+            if (now >= entry.expireTime) {
+                entry.conn.disconnect();
+                it.remove();
+            }
+        }
+    }
+}
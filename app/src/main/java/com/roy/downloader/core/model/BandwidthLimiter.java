@@ -0,0 +1,172 @@
+package com.roy.downloader.core.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ * Token bucket limiter shared by all pieces of all downloads.
+ * The total speed limit is divided between active downloads in proportion to
+ * their priority (weighted max-min fairness): a download with its own limit
+ * below the fair share takes only its limit, and the rest is divided between
+ * the others. Pieces of one download share the bucket of the download.
+ */
+
+public class BandwidthLimiter {
+    @SuppressWarnings("unused")
+    private static final String TAG = BandwidthLimiter.class.getSimpleName();
+
+    private static final long NANOS_IN_SEC = 1_000_000_000L;
+    /* The amount of tokens that the bucket can accumulate, in time of transfer at the bucket rate */
+    private static final long BURST_TIME = 50; /* ms */
+    /* The amount of data read at once, in time of transfer at the bucket rate */
+    private static final long QUANTUM_TIME = 20; /* ms */
+    private static final int MIN_QUANTUM = 1024;
+
+    private final HashMap<UUID, Bucket> buckets = new HashMap<>();
+    /* In bytes/s, 0 - without limit */
+    private long totalLimit;
+
+    public static class Bucket {
+        private final UUID downloadId;
+        private int weight;
+        /* Own limit of the download, in bytes/s, 0 - without limit */
+        private long cap;
+        private int refCount;
+
+        /* In bytes/s, 0 - without limit */
+        private long rate;
+        private double tokens;
+        private long lastRefillTime;
+
+        Bucket(UUID downloadId) {
+            this.downloadId = downloadId;
+        }
+
+        /*
+         * Takes the tokens for the bytes that have been read and returns
+         * the time to wait before the next read, in ns. The bucket can go
+         * into debt, so that concurrent pieces wait in turn
+         */
+
+        public synchronized long reserve(int bytes) {
+            if (rate <= 0)
+                return 0;
+
+            refill(System.nanoTime());
+            tokens -= bytes;
+
+            return (tokens >= 0 ? 0 : (long) (-tokens * NANOS_IN_SEC / rate));
+        }
+
+        /*
+         * Returns how many bytes should be read at once,
+         * so that the reads are spread evenly over time
+         */
+
+        public synchronized int quantum(int maxBytes) {
+            if (rate <= 0)
+                return maxBytes;
+
+            long quantum = Math.max(rate * QUANTUM_TIME / 1000, MIN_QUANTUM);
+
+            return (int) Math.min(quantum, maxBytes);
+        }
+
+        public synchronized long getRate() {
+            return rate;
+        }
+
+        private synchronized void setRate(long newRate) {
+            long now = System.nanoTime();
+            if (rate <= 0)
+                tokens = 0;
+            else
+                refill(now);
+            lastRefillTime = now;
+            rate = newRate;
+        }
+
+        private void refill(long now) {
+            double burst = Math.max(rate * BURST_TIME / 1000.0, MIN_QUANTUM);
+            tokens = Math.min(burst, tokens + (double) (now - lastRefillTime) * rate / NANOS_IN_SEC);
+            lastRefillTime = now;
+        }
+    }
+
+    /*
+     * Limits in KiB/s, 0 - without limit
+     */
+
+    public synchronized Bucket register(@NonNull UUID downloadId, int priority, int speedLimit) {
+        Bucket bucket = buckets.get(downloadId);
+        if (bucket == null) {
+            bucket = new Bucket(downloadId);
+            buckets.put(downloadId, bucket);
+        }
+        bucket.refCount++;
+        bucket.weight = Math.max(priority, 1);
+        bucket.cap = speedLimit * 1024L;
+        distribute();
+
+        return bucket;
+    }
+
+    public synchronized void unregister(@NonNull Bucket bucket) {
+        if (--bucket.refCount > 0)
+            return;
+
+        buckets.remove(bucket.downloadId);
+        distribute();
+    }
+
+    public synchronized void setTotalLimit(int speedLimit) {
+        totalLimit = speedLimit * 1024L;
+        distribute();
+    }
+
+    /*
+     * Water-filling: settle the downloads whose own limit is below the fair share,
+     * then divide the rest of the total limit between the others by weight
+     */
+
+    private void distribute() {
+        if (totalLimit <= 0) {
+            for (Bucket bucket : buckets.values())
+                bucket.setRate(bucket.cap);
+            return;
+        }
+
+        List<Bucket> unsettled = new ArrayList<>(buckets.values());
+        long remaining = totalLimit;
+        boolean settled = true;
+        while (settled && !unsettled.isEmpty()) {
+            settled = false;
+            long totalWeight = 0;
+            for (Bucket bucket : unsettled)
+                totalWeight += bucket.weight;
+
+            Iterator<Bucket> it = unsettled.iterator();
+            while (it.hasNext()) {
+                Bucket bucket = it.next();
+                long fairShare = remaining * bucket.weight / totalWeight;
+                if (bucket.cap > 0 && bucket.cap <= fairShare) {
+                    bucket.setRate(bucket.cap);
+                    remaining -= bucket.cap;
+                    it.remove();
+                    settled = true;
+                }
+            }
+        }
+
+        long totalWeight = 0;
+        for (Bucket bucket : unsettled)
+            totalWeight += bucket.weight;
+        for (Bucket bucket : unsettled)
+            bucket.setRate(Math.max(remaining * bucket.weight / totalWeight, 1));
+    }
+}
@@ -0,0 +1,310 @@
+package com.roy.downloader.core.model;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.roy.downloader.core.model.data.StatusCode;
+import com.roy.downloader.core.model.data.entity.DownloadBlock;
+import com.roy.downloader.core.model.data.entity.DownloadPiece;
+import com.roy.downloader.core.storage.DataRepository;
+import com.roy.downloader.core.system.FileDescriptorWrapper;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static com.roy.downloader.core.model.data.entity.DownloadBlock.BLOCK_SIZE;
+
+/*
+ * Keeps the table of block checksums of the download (see DownloadBlock).
+ * A block is read back and hashed once all of its data has reached the file,
+ * regardless of which pieces wrote it. The table is used in two places:
+ *
+ *  - on resume, the last blocks before the progress of each unfinished piece
+ *    are checked, and the piece is rewound to the first damaged block;
+ *  - if the checksum of the finished file doesn't match, the recorded blocks
+ *    are checked to find the damaged ones, so that only they are downloaded again.
+ */
+
+class BlockVerifier implements Closeable {
+    @SuppressWarnings("unused")
+    private static final String TAG = BlockVerifier.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long KEEP_ALIVE_TIME = 30; /* sec */
+
+    /* Shared by all downloads; the thread is released after a timeout */
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        executor = new ThreadPoolExecutor(1, 1,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                (r) -> new Thread(r, "BlockVerifier"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final UUID infoId;
+    private final DataRepository repo;
+    private final long totalBytes;
+    private final FileDescriptorWrapper fdWrapper;
+    private final FileInputStream in;
+    private final FileChannel channel;
+    /* The recorded checksums by block index. Guarded by this */
+    private final HashMap<Integer, Long> crcs = new HashMap<>();
+    /* The blocks that are being hashed. Guarded by this */
+    private final HashMap<Integer, Boolean> pending = new HashMap<>();
+    private volatile boolean closed;
+
+    private BlockVerifier(UUID infoId, DataRepository repo, long totalBytes,
+                          FileDescriptorWrapper fdWrapper, FileDescriptor fd) {
+        this.infoId = infoId;
+        this.repo = repo;
+        this.totalBytes = totalBytes;
+        this.fdWrapper = fdWrapper;
+        this.in = new FileInputStream(fd);
+        this.channel = in.getChannel();
+        for (DownloadBlock block : repo.getBlocksById(infoId))
+            crcs.put(block.blockIndex, block.crc);
+    }
+
+    /*
+     * The verifier owns the wrapper and closes it. Returns null if the file can't be opened
+     */
+
+    static BlockVerifier open(@NonNull UUID infoId, @NonNull DataRepository repo,
+                              long totalBytes, @NonNull FileDescriptorWrapper fdWrapper) {
+        try {
+            FileDescriptor fd = fdWrapper.open("r");
+            if (fd != null)
+                return new BlockVerifier(infoId, repo, totalBytes, fdWrapper, fd);
+
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to open file: " + Log.getStackTraceString(e));
+        }
+        try {
+            fdWrapper.close();
+
+        } catch (IOException e) {
+            /* Ignore */
+        }
+
+        return null;
+    }
+
+    /*
+     * Checks the data of the unfinished pieces before resuming. The blocks that the piece
+     * hasn't reached are forgotten, since the progress could have been rewound. Then the
+     * blocks before the progress are checked from the last one, until an intact block or
+     * a block without the checksum is found. Returns the rewound pieces
+     */
+
+    @NonNull
+    List<DownloadPiece> verifyTails(@NonNull List<DownloadPiece> pieces) {
+        ArrayList<DownloadPiece> changed = new ArrayList<>();
+        ArrayList<Integer> forgotten = new ArrayList<>();
+        for (DownloadPiece piece : pieces) {
+            if (piece.statusCode == StatusCode.STATUS_SUCCESS || piece.size <= 0)
+                continue;
+
+            long endPos = piece.startPos + piece.size;
+            int first = getBlockIndex(piece.curBytes);
+            int last = getBlockIndex(endPos - 1);
+            for (int i = first; i <= last; i++) {
+                if (forget(i))
+                    forgotten.add(i);
+            }
+
+            for (int i = first - 1; i >= 0 && getBlockEnd(i) > piece.startPos; i--) {
+                Long crc = getCrc(i);
+                if (crc == null)
+                    break;
+                try {
+                    if (calcCrc(i) == crc)
+                        break;
+
+                } catch (IOException e) {
+                    Log.w(TAG, "Unable to read block " + i + ": " + Log.getStackTraceString(e));
+                }
+                Log.i(TAG, "Block " + i + " of " + infoId + " is damaged, rewind piece " + piece.index);
+                forget(i);
+                forgotten.add(i);
+                piece.curBytes = Math.max(DownloadBlock.blockStartPos(i), piece.startPos);
+                if (!changed.contains(piece))
+                    changed.add(piece);
+            }
+        }
+        if (!forgotten.isEmpty())
+            repo.deleteBlocks(infoId, forgotten);
+
+        return changed;
+    }
+
+    /*
+     * Called with the ranges of the file that have been written, as [start, end) pairs
+     * sorted by the start position. Hashes the new blocks that the ranges fully cover
+     */
+
+    void update(@NonNull List<long[]> ranges) {
+        long start = -1, end = -1;
+        for (long[] range : ranges) {
+            if (range[0] == end) {
+                end = range[1];
+                continue;
+            }
+            if (start >= 0)
+                hashBlocks(start, end);
+            start = range[0];
+            end = range[1];
+        }
+        if (start >= 0)
+            hashBlocks(start, end);
+    }
+
+    /*
+     * Checks all recorded blocks of the finished file. Returns the damaged
+     * blocks, or an empty list if none of the recorded blocks is damaged
+     */
+
+    @NonNull
+    List<Integer> findDamaged() {
+        awaitPending();
+
+        ArrayList<Integer> indexes;
+        synchronized (this) {
+            indexes = new ArrayList<>(crcs.keySet());
+        }
+        Collections.sort(indexes);
+
+        ArrayList<Integer> damaged = new ArrayList<>();
+        for (int i : indexes) {
+            if (closed)
+                break;
+            Long crc = getCrc(i);
+            try {
+                if (crc != null && calcCrc(i) == crc)
+                    continue;
+
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read block " + i + ": " + Log.getStackTraceString(e));
+            }
+            damaged.add(i);
+        }
+
+        return damaged;
+    }
+
+    private void hashBlocks(long start, long end) {
+        for (int i = getBlockIndex(start + BLOCK_SIZE - 1); getBlockEnd(i) <= end; i++) {
+            if (DownloadBlock.blockStartPos(i) >= totalBytes)
+                break;
+            synchronized (this) {
+                if (crcs.containsKey(i) || pending.containsKey(i))
+                    continue;
+                pending.put(i, true);
+            }
+            int blockIndex = i;
+            executor.execute(() -> hashBlock(blockIndex));
+        }
+    }
+
+    private void hashBlock(int blockIndex) {
+        try {
+            if (closed)
+                return;
+            long crc = calcCrc(blockIndex);
+            synchronized (this) {
+                if (closed)
+                    return;
+                crcs.put(blockIndex, crc);
+            }
+            repo.addBlock(new DownloadBlock(infoId, blockIndex, crc));
+
+        } catch (Exception e) {
+            if (!closed)
+                Log.w(TAG, "Unable to hash block " + blockIndex + ": " + Log.getStackTraceString(e));
+
+        } finally {
+            synchronized (this) {
+                pending.remove(blockIndex);
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void awaitPending() {
+        boolean interrupted = false;
+        while (!pending.isEmpty() && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                break;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private long calcCrc(int blockIndex) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long pos = DownloadBlock.blockStartPos(blockIndex);
+        long end = getBlockEnd(blockIndex);
+        while (pos < end) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - pos));
+            int read = channel.read(buf, pos);
+            if (read < 0)
+                throw new IOException("Unexpected end of file at " + pos);
+            crc.update(buf.array(), 0, read);
+            pos += read;
+        }
+
+        return crc.getValue();
+    }
+
+    private synchronized Long getCrc(int blockIndex) {
+        return crcs.get(blockIndex);
+    }
+
+    private synchronized boolean forget(int blockIndex) {
+        return crcs.remove(blockIndex) != null;
+    }
+
+    private static int getBlockIndex(long pos) {
+        return (int) (pos / BLOCK_SIZE);
+    }
+
+    private long getBlockEnd(int blockIndex) {
+        return Math.min(DownloadBlock.blockStartPos(blockIndex + 1), totalBytes);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            in.close();
+            fdWrapper.close();
+
+        } catch (IOException e) {
+            /* Ignore */
+        }
+    }
+}
@@ -19,6 +19,9 @@ public class ChangeableParams implements Parcelable {
     public Boolean unmeteredConnectionsOnly;
     public Boolean retry;
     public String checksum;
+    public Integer priority;
+    /* In KiB/s */
+    public Integer speedLimit;
 
     public ChangeableParams() {
     }
@@ -35,6 +38,12 @@ public class ChangeableParams implements Parcelable {
         if (retryVal != -1)
             retry = retryVal > 0;
         checksum = source.readString();
+        int priorityVal = source.readInt();
+        if (priorityVal != -1)
+            priority = priorityVal;
+        int speedLimitVal = source.readInt();
+        if (speedLimitVal != -1)
+            speedLimit = speedLimitVal;
     }
 
     @Override
@@ -57,6 +66,14 @@ public class ChangeableParams implements Parcelable {
         else
             dest.writeByte((byte) (retry ? 1 : 0));
         dest.writeString(checksum);
+        if (priority == null)
+            dest.writeInt(-1);
+        else
+            dest.writeInt(priority);
+        if (speedLimit == null)
+            dest.writeInt(-1);
+        else
+            dest.writeInt(speedLimit);
     }
 
     public static final Parcelable.Creator<ChangeableParams> CREATOR = new Parcelable.Creator<>() {
@@ -82,6 +99,8 @@ public class ChangeableParams implements Parcelable {
                 ", unmeteredConnectionsOnly=" + unmeteredConnectionsOnly +
                 ", retry=" + retry +
                 ", checksum='" + checksum + '\'' +
+                ", priority=" + priority +
+                ", speedLimit=" + speedLimit +
                 '}';
     }
 }
@@ -0,0 +1,127 @@
+package com.roy.downloader.core.model;
+
+/*
+ * Chooses the number of connections of an adaptive download (AIMD).
+ * The download starts with a few connections, and one more is added while
+ * the total throughput keeps rising. The number is halved when the server
+ * throttles the download (HTTP 503/429), and decreased by a quarter if the
+ * last added connection hasn't raised the throughput, i.e. the link or
+ * the server is saturated. Not thread-safe, used by the download thread only.
+ */
+
+class ConnectionController {
+    @SuppressWarnings("unused")
+    private static final String TAG = ConnectionController.class.getSimpleName();
+
+    static final int INITIAL_CONNECTIONS = 2;
+    /* How long the throughput is measured with the same number of connections, ms */
+    private static final long SAMPLE_TIME = 4000;
+    /* The throughput must rise by this percentage for the added connection to stay */
+    private static final int MIN_GAIN_PERCENT = 10;
+    /* Don't add connections for this time after decreasing their number, ms */
+    private static final long INCREASE_DELAY = 20000;
+    /* The maximum time to wait after the server throttled the download, ms */
+    private static final long MAX_THROTTLE_HOLD = 60000;
+    /* Give up if the server keeps throttling a single connection */
+    private static final int MAX_THROTTLES_AT_MIN = 5;
+
+    private final int minConnections;
+    private final int maxConnections;
+    private int limit;
+    /* Throughput measured with the previous number of connections, bytes/s */
+    private long prevThroughput = -1;
+    private boolean increased;
+    private long sampleStart = -1;
+    private long sampleBytes;
+    /* Don't start connections until this time */
+    private long holdUntil;
+    /* Don't add connections until this time */
+    private long increaseAfter;
+    private int numThrottlesAtMin;
+
+    /*
+     * Starts with the given number of connections, or INITIAL_CONNECTIONS if it's 0
+     */
+
+    ConnectionController(int minConnections, int maxConnections, int initialConnections) {
+        this.minConnections = Math.max(minConnections, 1);
+        this.maxConnections = Math.max(maxConnections, this.minConnections);
+        if (initialConnections <= 0)
+            initialConnections = INITIAL_CONNECTIONS;
+        this.limit = Math.max(this.minConnections, Math.min(initialConnections, this.maxConnections));
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /*
+     * Returns false while waiting after the server throttled the download
+     */
+
+    boolean canStart(long now) {
+        return now >= holdUntil;
+    }
+
+    /*
+     * Called periodically with the total number of downloaded bytes
+     */
+
+    void onTick(long now, long downloadedBytes) {
+        if (now < holdUntil)
+            return;
+        if (sampleStart < 0) {
+            startSample(now, downloadedBytes);
+            return;
+        }
+        if (now - sampleStart < SAMPLE_TIME)
+            return;
+
+        long throughput = (downloadedBytes - sampleBytes) * 1000 / (now - sampleStart);
+        startSample(now, downloadedBytes);
+        if (throughput > 0)
+            numThrottlesAtMin = 0;
+
+        if (increased && throughput * 100 < prevThroughput * (100 + MIN_GAIN_PERCENT)) {
+            decrease(now, limit - Math.max(limit / 4, 1));
+        } else if (limit < maxConnections && now >= increaseAfter) {
+            limit++;
+            increased = true;
+        } else {
+            increased = false;
+        }
+        prevThroughput = throughput;
+    }
+
+    /*
+     * Returns false if the server keeps throttling the minimum number of
+     * connections, so there is no point to wait any longer
+     */
+
+    boolean onThrottled(long now, long retryAfter) {
+        if (now < holdUntil)
+            return true;
+
+        if (limit == minConnections && ++numThrottlesAtMin > MAX_THROTTLES_AT_MIN)
+            return false;
+        decrease(now, limit / 2);
+        holdUntil = now + Math.min(Math.max(retryAfter * 1000, SAMPLE_TIME), MAX_THROTTLE_HOLD);
+        increaseAfter = Math.max(increaseAfter, holdUntil + INCREASE_DELAY);
+        /* The throughput during the throttling isn't representative */
+        sampleStart = -1;
+        prevThroughput = -1;
+
+        return true;
+    }
+
+    private void decrease(long now, int newLimit) {
+        limit = Math.max(newLimit, minConnections);
+        increased = false;
+        increaseAfter = now + INCREASE_DELAY;
+    }
+
+    private void startSample(long now, long downloadedBytes) {
+        sampleStart = now;
+        sampleBytes = downloadedBytes;
+    }
+}
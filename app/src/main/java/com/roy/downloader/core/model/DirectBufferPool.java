@@ -0,0 +1,93 @@
+package com.roy.downloader.core.model;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Process-wide pool of direct buffers used by pieces for data transfer.
+ * Buffer sizes are powers of two from MIN_BUFFER_SIZE to MAX_BUFFER_SIZE;
+ * the amount of memory kept by free buffers is limited.
+ */
+
+class DirectBufferPool {
+    @SuppressWarnings("unused")
+    private static final String TAG = DirectBufferPool.class.getSimpleName();
+
+    static final int MIN_BUFFER_SIZE = 16 * 1024;
+    static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    private static final long MAX_POOLED_BYTES = 4 * 1024 * 1024;
+    /* The buffer should hold about this part of the data transferred in one second */
+    private static final int BUFFER_FILL_RATE = 32;
+
+    private static final DirectBufferPool INSTANCE = new DirectBufferPool();
+
+    private final SizeClass[] sizeClasses;
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private static class SizeClass {
+        final int size;
+        final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+    }
+
+    static DirectBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    private DirectBufferPool() {
+        int num = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE / MIN_BUFFER_SIZE) + 1;
+        sizeClasses = new SizeClass[num];
+        for (int i = 0; i < num; i++)
+            sizeClasses[i] = new SizeClass(MIN_BUFFER_SIZE << i);
+    }
+
+    /*
+     * Returns the buffer size suitable for the given throughput, in bytes/s
+     */
+
+    static int sizeFor(long throughput) {
+        long target = throughput / BUFFER_FILL_RATE;
+        if (target <= MIN_BUFFER_SIZE)
+            return MIN_BUFFER_SIZE;
+        if (target >= MAX_BUFFER_SIZE)
+            return MAX_BUFFER_SIZE;
+
+        return Integer.highestOneBit((int) target - 1) << 1;
+    }
+
+    @NonNull
+    ByteBuffer acquire(int size) {
+        SizeClass sizeClass = sizeClasses[indexOf(size)];
+        ByteBuffer buf = sizeClass.buffers.poll();
+        if (buf == null)
+            return ByteBuffer.allocateDirect(sizeClass.size);
+
+        pooledBytes.addAndGet(-buf.capacity());
+        buf.clear();
+
+        return buf;
+    }
+
+    void release(@NonNull ByteBuffer buf) {
+        int capacity = buf.capacity();
+        if (pooledBytes.addAndGet(capacity) > MAX_POOLED_BYTES) {
+            /* Let GC free it */
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        sizeClasses[indexOf(capacity)].buffers.offer(buf);
+    }
+
+    private int indexOf(int size) {
+        int clamped = Math.max(MIN_BUFFER_SIZE, Math.min(size, MAX_BUFFER_SIZE));
+        int index = 32 - Integer.numberOfLeadingZeros((clamped - 1) / MIN_BUFFER_SIZE);
+
+        return Math.min(index, sizeClasses.length - 1);
+    }
+}
@@ -0,0 +1,253 @@
+package com.roy.downloader.core.model;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Write-behind stage between the network and the storage. Pieces submit filled
+ * buffers and continue reading, while one thread per storage volume writes them
+ * in the order of submission. Adjacent buffers of the same file are written
+ * with one gathering write. A slow volume only stalls the pieces writing to it,
+ * and only when their write rings are full.
+ */
+
+class DiskWriter {
+    @SuppressWarnings("unused")
+    private static final String TAG = DiskWriter.class.getSimpleName();
+
+    private static final long KEEP_ALIVE_TIME = 30; /* sec */
+    /* The maximum number of buffers written with one syscall */
+    private static final int MAX_BATCH_SIZE = 16;
+
+    private static final HashMap<Long, DiskWriter> writers = new HashMap<>();
+
+    private final long volumeId;
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<>();
+    /* Indicates that the drain task is submitted and hasn't yet seen the empty queue */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong numWrites = new AtomicLong();
+    private final AtomicLong numBuffers = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    /* Time spent in write syscalls, ns */
+    private final AtomicLong totalWriteLatency = new AtomicLong();
+    private final AtomicLong maxWriteLatency = new AtomicLong();
+
+    public static class Stats {
+        public final long volumeId;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        public final long numWrites;
+        /* Buffers per write, greater than 1 if adjacent buffers were coalesced */
+        public final double avgBatchSize;
+        public final long bytesWritten;
+        /* us */
+        public final long avgWriteLatency;
+        public final long maxWriteLatency;
+
+        Stats(long volumeId, int queueDepth, int maxQueueDepth, long numWrites,
+              double avgBatchSize, long bytesWritten, long avgWriteLatency, long maxWriteLatency) {
+            this.volumeId = volumeId;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.numWrites = numWrites;
+            this.avgBatchSize = avgBatchSize;
+            this.bytesWritten = bytesWritten;
+            this.avgWriteLatency = avgWriteLatency;
+            this.maxWriteLatency = maxWriteLatency;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "volumeId=" + volumeId +
+                    ", queueDepth=" + queueDepth +
+                    ", maxQueueDepth=" + maxQueueDepth +
+                    ", numWrites=" + numWrites +
+                    ", avgBatchSize=" + avgBatchSize +
+                    ", bytesWritten=" + bytesWritten +
+                    ", avgWriteLatency=" + avgWriteLatency +
+                    ", maxWriteLatency=" + maxWriteLatency +
+                    '}';
+        }
+    }
+
+    private static class Request {
+        final WriteRing ring;
+        final FileChannel channel;
+        final ByteBuffer buf;
+        final long pos;
+
+        Request(WriteRing ring, FileChannel channel, ByteBuffer buf, long pos) {
+            this.ring = ring;
+            this.channel = channel;
+            this.buf = buf;
+            this.pos = pos;
+        }
+    }
+
+    /*
+     * Volume ID -1 (unknown) gets its own writer as well
+     */
+
+    @NonNull
+    static DiskWriter forVolume(long volumeId) {
+        synchronized (writers) {
+            DiskWriter writer = writers.get(volumeId);
+            if (writer == null) {
+                writer = new DiskWriter(volumeId);
+                writers.put(volumeId, writer);
+            }
+
+            return writer;
+        }
+    }
+
+    @NonNull
+    static List<Stats> getAllStats() {
+        ArrayList<Stats> stats = new ArrayList<>();
+        synchronized (writers) {
+            for (DiskWriter writer : writers.values())
+                stats.add(writer.getStats());
+        }
+
+        return stats;
+    }
+
+    private DiskWriter(long volumeId) {
+        this.volumeId = volumeId;
+        /* The thread is released after a timeout, so idle volumes don't keep threads */
+        executor = new ThreadPoolExecutor(1, 1,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                (r) -> new Thread(r, "DiskWriter-" + volumeId));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /*
+     * Writes the buffer from its position to its limit at the given file offset.
+     * The buffer is returned to the ring after the write
+     */
+
+    void submit(@NonNull WriteRing ring, @NonNull FileChannel channel, @NonNull ByteBuffer buf, long pos) {
+        ring.onSubmitted();
+        queue.offer(new Request(ring, channel, buf, pos));
+
+        int depth = queueDepth.incrementAndGet();
+        int max;
+        do {
+            max = maxQueueDepth.get();
+        } while (depth > max && !maxQueueDepth.compareAndSet(max, depth));
+
+        if (scheduled.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    private void drain() {
+        ArrayList<Request> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            Request request;
+            while ((request = queue.poll()) != null) {
+                batch.add(request);
+                /* Coalesce the following buffers that continue the same file region */
+                long end = request.pos + request.buf.remaining();
+                Request next;
+                while (batch.size() < MAX_BATCH_SIZE &&
+                        (next = queue.peek()) != null &&
+                        next.ring == request.ring &&
+                        next.channel == request.channel &&
+                        next.pos == end) {
+                    queue.poll();
+                    batch.add(next);
+                    end += next.buf.remaining();
+                }
+                queueDepth.addAndGet(-batch.size());
+
+                write(batch, end);
+                batch.clear();
+            }
+
+            scheduled.set(false);
+            /* Recheck, because a request could be added before the flag was cleared */
+            if (queue.isEmpty() || !scheduled.compareAndSet(false, true))
+                return;
+        }
+    }
+
+    private void write(List<Request> batch, long end) {
+        Request first = batch.get(0);
+        WriteRing ring = first.ring;
+        /* Don't write past the failed region, the piece will be resumed from it */
+        if (ring.getError() != null) {
+            for (Request request : batch)
+                ring.onWritten(request.buf, -1, null);
+            return;
+        }
+
+        IOException error = null;
+        long startTime = System.nanoTime();
+        try {
+            if (batch.size() == 1) {
+                long pos = first.pos;
+                while (first.buf.hasRemaining())
+                    pos += first.channel.write(first.buf, pos);
+            } else {
+                ByteBuffer[] bufs = new ByteBuffer[batch.size()];
+                for (int i = 0; i < bufs.length; i++)
+                    bufs[i] = batch.get(i).buf;
+                /* Only this thread writes through the channel of the piece */
+                first.channel.position(first.pos);
+                long remaining = end - first.pos;
+                while (remaining > 0)
+                    remaining -= first.channel.write(bufs);
+            }
+
+        } catch (IOException e) {
+            error = e;
+        }
+
+        long latency = System.nanoTime() - startTime;
+        numWrites.incrementAndGet();
+        numBuffers.addAndGet(batch.size());
+        totalWriteLatency.addAndGet(latency);
+        long max;
+        do {
+            max = maxWriteLatency.get();
+        } while (latency > max && !maxWriteLatency.compareAndSet(max, latency));
+        if (error == null)
+            bytesWritten.addAndGet(end - first.pos);
+
+        for (Request request : batch)
+            ring.onWritten(request.buf, error == null ? end : -1, error);
+    }
+
+    @NonNull
+    Stats getStats() {
+        long writes = numWrites.get();
+
+        return new Stats(volumeId,
+                queueDepth.get(),
+                maxQueueDepth.get(),
+                writes,
+                writes == 0 ? 0 : (double) numBuffers.get() / writes,
+                bytesWritten.get(),
+                writes == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalWriteLatency.get() / writes),
+                TimeUnit.NANOSECONDS.toMicros(maxWriteLatency.get()));
+    }
+}
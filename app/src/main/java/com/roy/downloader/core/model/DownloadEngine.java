@@ -2,6 +2,7 @@ package com.roy.downloader.core.model;
 
 import android.content.Context;
 import android.content.Intent;
+import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Build;
 import android.text.TextUtils;
@@ -14,15 +15,17 @@ import androidx.work.WorkManager;
 
 import com.roy.downloader.R;
 import com.roy.downloader.core.DownloadNotifier;
+import com.roy.downloader.core.HttpMetrics;
 import com.roy.downloader.core.archive.ArchiveExtractor;
 import com.roy.downloader.core.exception.UnknownArchiveFormatException;
 import com.roy.downloader.core.RepositoryHelper;
 import com.roy.downloader.core.exception.FileAlreadyExistsException;
+import com.roy.downloader.core.model.data.LiveProgress;
 import com.roy.downloader.core.model.data.StatusCode;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
+import com.roy.downloader.core.model.data.entity.InfoAndPieces;
 import com.roy.downloader.core.settings.SettingsRepository;
 import com.roy.downloader.core.storage.DataRepository;
-import com.roy.downloader.core.system.FileDescriptorWrapper;
 import com.roy.downloader.core.system.FileSystemFacade;
 import com.roy.downloader.core.system.SystemFacade;
 import com.roy.downloader.core.system.SystemFacadeHelper;
@@ -34,16 +37,18 @@ import com.roy.downloader.receiver.PowerReceiver;
 import com.roy.downloader.service.DeleteDownloadsWorker;
 import com.roy.downloader.service.DownloadService;
 
-import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.CompositeDisposable;
@@ -64,6 +69,28 @@ public class DownloadEngine {
     private final HashMap<UUID, ChangeableParams> duringChange = new HashMap<>();
     private final DownloadQueue queue = new DownloadQueue();
     private final DownloadNotifier notifier;
+    private final PieceExecutor pieceExecutor;
+    private final BandwidthLimiter bandwidthLimiter = new BandwidthLimiter();
+    private final ProgressAggregator progressAggregator;
+    private final ProgressBus progressBus = new ProgressBus();
+    private final HostProfiler hostProfiler;
+    private final HostConnectionLimiter hostLimiter;
+    private final FileHashCache hashCache;
+    private final DownloadThreadImpl.OnBeforeFinishedCallback onBeforeFinishedCallback =
+            new DownloadThreadImpl.OnBeforeFinishedCallback() {
+                @NonNull
+                @Override
+                public DownloadInfo onVerifyChecksum(@NonNull DownloadInfo info, String checksum) {
+                    return DownloadEngine.this.onVerifyChecksum(info, checksum);
+                }
+
+                @NonNull
+                @Override
+                public DownloadInfo onBeforeFinished(@NonNull DownloadInfo info)
+                        throws MoveException, UncompressArchiveException {
+                    return DownloadEngine.this.onBeforeFinished(info);
+                }
+            };
 
     private final PowerReceiver powerReceiver = new PowerReceiver();
     private final ConnectionReceiver connectionReceiver = new ConnectionReceiver();
@@ -86,6 +113,12 @@ public class DownloadEngine {
         pref = RepositoryHelper.getSettingsRepository(appContext);
         fs = SystemFacadeHelper.getFileSystemFacade(appContext);
         notifier = DownloadNotifier.getInstance(appContext);
+        pieceExecutor = new PieceExecutor(pref.maxConnections());
+        bandwidthLimiter.setTotalLimit(pref.speedLimit());
+        progressAggregator = new ProgressAggregator(repo, pref.progressFlushInterval());
+        hostProfiler = new HostProfiler(repo);
+        hostLimiter = new HostConnectionLimiter(pref.maxConnectionsPerHost());
+        hashCache = new FileHashCache(repo, fs);
 
         switchConnectionReceiver();
         switchPowerReceiver();
@@ -188,6 +221,39 @@ public class DownloadEngine {
         runDeleteDownloadsWorker(strIdList, withFile);
     }
 
+    /*
+     * Progress of running downloads, without waiting for the database
+     */
+
+    public Flowable<Map<UUID, LiveProgress>> observeLiveProgress() {
+        return progressBus.observe();
+    }
+
+    /*
+     * Downloads from the database with the live progress of the running ones.
+     * Each emission is a new list of copies, the objects from Room are left as is
+     */
+
+    public Flowable<List<InfoAndPieces>> observeAllInfoAndPieces() {
+        return Flowable.combineLatest(repo.observeAllInfoAndPieces(), progressBus.observe(),
+                (infoAndPiecesList, progress) -> {
+                    List<InfoAndPieces> list = new ArrayList<>(infoAndPiecesList.size());
+                    for (InfoAndPieces infoAndPieces : infoAndPiecesList)
+                        list.add(new InfoAndPieces(infoAndPieces, progress.get(infoAndPieces.info.id)));
+
+                    return list;
+                });
+    }
+
+    public Flowable<InfoAndPieces> observeInfoAndPiecesById(@NonNull UUID id) {
+        return Flowable.combineLatest(repo.observeInfoAndPiecesById(id), progressBus.observe(),
+                (infoAndPieces, progress) -> new InfoAndPieces(infoAndPieces, progress.get(id)));
+    }
+
+    public PieceExecutor.Stats getPieceExecutorStats() {
+        return pieceExecutor.getStats();
+    }
+
     public boolean hasActiveDownloads() {
         return !activeDownloads.isEmpty();
     }
@@ -201,8 +267,8 @@ public class DownloadEngine {
         appContext.startService(i);
     }
 
-    private boolean verifyChecksum(DownloadInfo info) {
-        if (doVerifyChecksum(info)) {
+    private boolean verifyChecksum(DownloadInfo info, String checksum) {
+        if (doVerifyChecksum(info, checksum)) {
             info.statusCode = StatusCode.STATUS_SUCCESS;
             info.statusMsg = null;
         } else {
@@ -212,37 +278,43 @@ public class DownloadEngine {
         return info.statusCode == StatusCode.STATUS_SUCCESS;
     }
 
-    private boolean doVerifyChecksum(DownloadInfo info) {
+    /*
+     * The checksum computed during the download saves re-reading the file,
+     * it's also cached for the next verifications and the download details.
+     * A mismatch is confirmed by re-reading the file anyway
+     */
+
+    private boolean doVerifyChecksum(DownloadInfo info, String checksum) {
         if (TextUtils.isEmpty(info.checksum)) {
             return true;
         }
+        String algorithm = DigestUtils.getAlgorithm(info.checksum);
+        if (algorithm == null)
+            throw new IllegalArgumentException("Unknown checksum type:" + info.checksum);
         String hash;
         try {
-            if (DigestUtils.isMd5Hash(info.checksum)) {
-                hash = calcHashSum(info, false);
-
-            } else if (DigestUtils.isSha256Hash(info.checksum)) {
-                hash = calcHashSum(info, true);
-
+            if (checksum == null) {
+                hash = hashCache.get(info, algorithm)[0];
             } else {
-                throw new IllegalArgumentException("Unknown checksum type:" + info.checksum);
+                hashCache.put(info, algorithm, checksum);
+                if (checksum.equalsIgnoreCase(info.checksum))
+                    return true;
+                hash = hashCache.compute(info, algorithm)[0];
             }
+
         } catch (IOException e) {
             return false;
         }
         return (hash != null && hash.equalsIgnoreCase(info.checksum));
     }
 
-    private String calcHashSum(DownloadInfo info, boolean sha256Hash) throws IOException {
-        Uri filePath = fs.getFileUri(info.dirPath, info.fileName);
-        if (filePath == null) return null;
+    /*
+     * Returns the hashes of the downloaded file in the order of the algorithms
+     * (see DigestUtils). Only the hashes that aren't cached are computed
+     */
 
-        try (FileDescriptorWrapper w = fs.getFD(filePath)) {
-            FileDescriptor outFd = w.open("r");
-            try (FileInputStream is = new FileInputStream(outFd)) {
-                return (sha256Hash ? DigestUtils.makeSha256Hash(is) : DigestUtils.makeMd5Hash(is));
-            }
-        }
+    public String[] getFileHashes(@NonNull DownloadInfo info, @NonNull String... algorithms) throws IOException {
+        return hashCache.get(info, algorithms);
     }
 
     /*
@@ -260,7 +332,7 @@ public class DownloadEngine {
         DownloadThread task = activeDownloads.get(id);
         if (task != null && task.isRunning()) return;
 
-        task = new DownloadThreadImpl(id, repo, pref, fs, SystemFacadeHelper.getSystemFacade(appContext), this::onBeforeFinished);
+        task = new DownloadThreadImpl(id, repo, pref, fs, SystemFacadeHelper.getSystemFacade(appContext), pieceExecutor, bandwidthLimiter, progressAggregator, progressBus, hostProfiler, hostLimiter, onBeforeFinishedCallback);
         activeDownloads.put(id, task);
         disposables.add(Observable.fromCallable(task).subscribeOn(Schedulers.io()).filter((result) -> result != null).observeOn(AndroidSchedulers.mainThread()).subscribe((result) -> onDownloadCompleted(result.getInfoId()), (Throwable t) -> handleDownloadError(id, t)));
     }
@@ -274,6 +346,7 @@ public class DownloadEngine {
 
         DownloadScheduler.undone(appContext, info);
         repo.deleteInfo(info, withFile);
+        ResumeJournal.delete(fs.getJournalDir(), info.id);
 
         DownloadThread task = activeDownloads.get(info.id);
         if (task != null) task.requestStop();
@@ -349,13 +422,21 @@ public class DownloadEngine {
             changed = true;
             info.checksum = params.checksum;
         }
+        if (params.priority != null) {
+            changed = true;
+            info.priority = params.priority;
+        }
+        if (params.speedLimit != null) {
+            changed = true;
+            info.speedLimit = params.speedLimit;
+        }
 
         boolean nameChanged = params.fileName != null;
         boolean dirChanged = params.dirPath != null;
         boolean urlChanged = params.url != null;
         boolean checksumChanged = params.checksum != null;
         if (checksumChanged) {
-            if (doVerifyChecksum(info)) {
+            if (doVerifyChecksum(info, null)) {
                 info.statusCode = StatusCode.STATUS_SUCCESS;
                 info.statusMsg = null;
             } else {
@@ -365,7 +446,15 @@ public class DownloadEngine {
         }
         if (nameChanged || dirChanged) {
             changed = true;
-            fs.moveFile(info.dirPath, info.fileName, (dirChanged ? params.dirPath : info.dirPath), (nameChanged ? params.fileName : info.fileName), true);
+            var srcName = info.fileName;
+            var destName = (nameChanged ? params.fileName : info.fileName);
+            /* The unfinished download keeps the data in the .part file */
+            if (fs.getFileUri(info.dirPath, info.getPartFileName()) != null) {
+                srcName = info.getPartFileName();
+                destName += DownloadInfo.PART_FILE_EXTENSION;
+            }
+            var method = fs.moveFile(info.dirPath, srcName, (dirChanged ? params.dirPath : info.dirPath), destName, true);
+            Log.i(TAG, "id=" + info.id + ", file moved by " + method);
             if (nameChanged) info.fileName = params.fileName;
             if (dirChanged) info.dirPath = params.dirPath;
         }
@@ -390,6 +479,11 @@ public class DownloadEngine {
     }
 
     private void onDownloadCompleted(UUID infoId) {
+        Log.d(TAG, "Piece executor: " + pieceExecutor.getStats());
+        Log.d(TAG, HttpMetrics.dump());
+        Log.d(TAG, "Progress aggregator: " + progressAggregator.getStats());
+        for (DiskWriter.Stats stats : DiskWriter.getAllStats())
+            Log.d(TAG, "Disk writer: " + stats);
         handleStatusCode(infoId);
         activeDownloads.remove(infoId);
         scheduleWaitingDownload();
@@ -442,19 +536,41 @@ public class DownloadEngine {
     }
 
     @NonNull
-    private DownloadInfo onBeforeFinished(DownloadInfo info) throws MoveException, UncompressArchiveException {
+    private DownloadInfo onVerifyChecksum(DownloadInfo info, String checksum) {
         var newInfo = new DownloadInfo(info);
-        var verified = true;
         if (!TextUtils.isEmpty(info.checksum)) {
-            verified = verifyChecksum(newInfo);
+            verifyChecksum(newInfo, checksum);
         }
+        return newInfo;
+    }
+
+    @NonNull
+    private DownloadInfo onBeforeFinished(DownloadInfo info) throws MoveException, UncompressArchiveException {
+        var newInfo = new DownloadInfo(info);
+        var verified = TextUtils.isEmpty(info.checksum) || info.statusCode == StatusCode.STATUS_SUCCESS;
         if (verified) {
             checkMoveAfterDownload(newInfo);
             checkUncompressArchive(newInfo);
         }
+        if (newInfo.statusCode == StatusCode.STATUS_SUCCESS)
+            scanFile(newInfo);
         return newInfo;
     }
 
+    /*
+     * Lets the media scanner index the file once it's in its final place.
+     * The document providers notify the scanner themselves
+     */
+
+    private void scanFile(DownloadInfo info) {
+        var path = fs.getFileUri(info.dirPath, info.fileName);
+        if (path == null || !Utils.isFileSystemPath(path)) {
+            return;
+        }
+        MediaScannerConnection.scanFile(appContext, new String[]{path.getPath()},
+                new String[]{info.mimeType}, null);
+    }
+
     private void checkMoveAfterDownload(DownloadInfo info) throws MoveException {
         if (!pref.moveAfterDownload()) {
             return;
@@ -464,7 +580,8 @@ public class DownloadEngine {
             return;
         }
         try {
-            fs.moveFile(info.dirPath, info.fileName, movePath, info.fileName, true);
+            var method = fs.moveFile(info.dirPath, info.fileName, movePath, info.fileName, true);
+            Log.i(TAG, "id=" + info.id + ", file moved after download by " + method);
         } catch (IOException e) {
             throw new MoveException(e);
         } catch (FileAlreadyExistsException e) {
@@ -529,6 +646,18 @@ public class DownloadEngine {
 
         } else if (key.equals(appContext.getString(R.string.pref_key_custom_battery_control))) {
             switchPowerReceiver();
+
+        } else if (key.equals(appContext.getString(R.string.pref_key_max_connections))) {
+            pieceExecutor.setMaxConnections(pref.maxConnections());
+
+        } else if (key.equals(appContext.getString(R.string.pref_key_max_connections_per_host))) {
+            hostLimiter.setMaxConnections(pref.maxConnectionsPerHost());
+
+        } else if (key.equals(appContext.getString(R.string.pref_key_speed_limit))) {
+            bandwidthLimiter.setTotalLimit(pref.speedLimit());
+
+        } else if (key.equals(appContext.getString(R.string.pref_key_progress_flush_interval))) {
+            progressAggregator.setFlushInterval(pref.progressFlushInterval());
         }
 
         if (reschedule) {
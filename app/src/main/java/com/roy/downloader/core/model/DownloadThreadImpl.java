@@ -9,9 +9,12 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import com.roy.downloader.core.HttpConnection;
+import com.roy.downloader.core.WarmConnections;
+import com.roy.downloader.core.exception.FileAlreadyExistsException;
 import com.roy.downloader.core.model.data.DownloadResult;
 import com.roy.downloader.core.model.data.PieceResult;
 import com.roy.downloader.core.model.data.StatusCode;
+import com.roy.downloader.core.model.data.entity.DownloadBlock;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
 import com.roy.downloader.core.model.data.entity.DownloadPiece;
 import com.roy.downloader.core.model.data.entity.Header;
@@ -25,6 +28,7 @@ import com.roy.downloader.core.utils.DownloadUtils;
 import com.roy.downloader.core.utils.MimeTypeUtils;
 import com.roy.downloader.core.utils.Utils;
 
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InterruptedIOException;
@@ -32,16 +36,32 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static com.roy.downloader.core.model.data.StatusCode.STATUS_BAD_REQUEST;
 import static com.roy.downloader.core.model.data.StatusCode.STATUS_CANNOT_RESUME;
+import static com.roy.downloader.core.model.data.StatusCode.STATUS_CHECKSUM_ERROR;
 import static com.roy.downloader.core.model.data.StatusCode.STATUS_FETCH_METADATA;
 import static com.roy.downloader.core.model.data.StatusCode.STATUS_FILE_ERROR;
 import static com.roy.downloader.core.model.data.StatusCode.STATUS_HTTP_DATA_ERROR;
@@ -68,20 +88,102 @@ import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
 class DownloadThreadImpl implements DownloadThread {
     @SuppressWarnings("unused")
     private static final String TAG = DownloadThreadImpl.class.getSimpleName();
+    /* Serializes the renames of the downloads with the same name, see claimFileName() */
+    private static final Object NAME_LOCK = new Object();
+
+    /* Don't split a piece if each of the halves would be smaller than this */
+    private static final long MIN_SPLIT_SIZE = 1024 * 1024; /* 1 MiB */
+    /* How often the running pieces are checked for stragglers, ms */
+    private static final long SUPERVISE_INTERVAL = 1000;
+    /* A piece is a straggler if it's this many times slower than the median piece */
+    private static final int STRAGGLER_SPEED_FACTOR = 4;
+    /* The minimum number of running pieces to compare their speed */
+    private static final int MIN_PIECES_TO_COMPARE = 3;
+    /* The maximum number of hedges racing the pieces of the download at once */
+    private static final int MAX_HEDGES = 2;
+    /* The time a hedge has to overtake the piece, otherwise the piece wins, ms */
+    private static final long HEDGE_TIMEOUT = 15000;
+    /* The number of failed attempts in a row after which the piece gives up and the whole download is retried */
+    private static final int MAX_PIECE_RETRIES = 5;
+    /* The backoff of the piece restarts, doubled with each failed attempt, ms */
+    private static final long MIN_PIECE_RETRY_DELAY = 1000;
+    private static final long MAX_PIECE_RETRY_DELAY = 30000;
+    /* Wakes up the download thread waiting for the pieces, see cancel() */
+    private static final Future<PieceResult> WAKE_UP = new FutureTask<>(() -> null);
 
     private DownloadInfo info;
     private final UUID id;
     /* Stop and delete */
-    private boolean stop;
-    private boolean pause;
+    private volatile boolean stop;
+    private volatile boolean pause;
     private boolean running;
-    private ExecutorService exec;
+    /* Time when the pause or stop has been requested, to measure how long the download takes to stop */
+    private volatile long cancelTime;
+    /* The metadata request in progress, aborted on pause or stop */
+    private volatile HttpConnection probeConnection;
+    /* Receives the finished pieces; a wake-up is put there on pause or stop */
+    private volatile BlockingQueue<Future<PieceResult>> completionQueue;
+    /* Shared by all downloads, must not be shut down here */
+    private final ExecutorService pieceExecutor;
+    private final List<PieceThreadImpl> pieceThreads = new CopyOnWriteArrayList<>();
+    private final BandwidthLimiter bandwidthLimiter;
+    private final ProgressAggregator progressAggregator;
+    private BandwidthLimiter.Bucket bucket;
+    private ResumeJournal journal;
+    private final ProgressBus progressBus;
+    private ProgressBus.Counter liveCounter;
     private final DataRepository repo;
     private final SettingsRepository pref;
     private final FileSystemFacade fs;
     private final SystemFacade systemFacade;
     private int networkType;
     private final OnBeforeFinishedCallback onBeforeFinishedCallback;
+    private final List<Hedge> hedges = new ArrayList<>();
+    /* Pieces waiting for a free connection */
+    private final ArrayDeque<Integer> pendingPieces = new ArrayDeque<>();
+    /*
+     * Number of the piece rows. Unlike the number of pieces chosen by the user,
+     * it grows when a piece is split, and the new piece gets the next index
+     */
+    private int pieceCount;
+    /* Pieces waiting to be restarted after a retryable error, in order of the retry time */
+    private final PriorityQueue<PieceRetry> retryPieces = new PriorityQueue<>();
+    /* The number of failed attempts in a row of each piece during this run */
+    private final HashMap<Integer, Integer> pieceFailures = new HashMap<>();
+    private final Random random = new Random();
+    /* Not null if the pieces stopped retrying and the whole download has to be retried */
+    private StopRequest retryRequest;
+    /* Not null if the number of connections is adaptive */
+    private ConnectionController connectionController;
+    private final HostProfiler hostProfiler;
+    /* The host of the download URL, null if unknown */
+    private String host;
+    /* Shared by all downloads */
+    private final HostConnectionLimiter hostLimiter;
+    private HostConnectionLimiter.Lease hostLease;
+    /* Limits the connections of a non-adaptive download if the host throttles requests */
+    private int hostConnectionLimit = Integer.MAX_VALUE;
+    /* The share of the host connection budget, see HostConnectionLimiter */
+    private int hostShare = Integer.MAX_VALUE;
+    /* The statistics of the transfer, saved in the host profile if the download succeeds */
+    private long transferBytes;
+    private long transferTime;
+    private int usedConnections;
+    private boolean adaptive;
+    private boolean throttled;
+    /* Null if the download has no checksum or it can't be computed on the fly */
+    private StreamingHasher hasher;
+    /* Null if the block verification is disabled or the download has no ranges */
+    private BlockVerifier verifier;
+    /* The data is written to the .part file, see createDataFile() */
+    private boolean staging;
+    private long lastHashTime;
+    /*
+     * The pieces from the database for the written ranges. They are read
+     * again only when the set of the running pieces changes
+     */
+    private List<DownloadPiece> savedPieces;
+    private final Set<Integer> savedRunningPieces = new HashSet<>();
 
     private static class ExecDownloadResult {
         StopRequest stopRequest;
@@ -94,7 +196,51 @@ class DownloadThreadImpl implements DownloadThread {
         }
     }
 
+    /*
+     * The second connection racing a straggler piece for the rest of its range
+     */
+
+    private static class Hedge {
+        final PieceThreadImpl piece;
+        final PieceThreadImpl thread;
+        final long startTime;
+
+        Hedge(PieceThreadImpl piece, PieceThreadImpl thread, long startTime) {
+            this.piece = piece;
+            this.thread = thread;
+            this.startTime = startTime;
+        }
+    }
+
+    /*
+     * The piece waiting for its backoff to expire
+     */
+
+    private static class PieceRetry implements Comparable<PieceRetry> {
+        final int pieceIndex;
+        final long retryTime;
+
+        PieceRetry(int pieceIndex, long retryTime) {
+            this.pieceIndex = pieceIndex;
+            this.retryTime = retryTime;
+        }
+
+        @Override
+        public int compareTo(PieceRetry other) {
+            return Long.compare(retryTime, other.retryTime);
+        }
+    }
+
     interface OnBeforeFinishedCallback {
+        /*
+         * Called before the .part file is published (see publishFile()), so that
+         * a file that fails the check keeps the .part name. The checksum is computed
+         * during the download with the type of the expected one, null if it hasn't been computed
+         */
+
+        @NonNull
+        DownloadInfo onVerifyChecksum(@NonNull DownloadInfo info, String checksum) throws Throwable;
+
         @NonNull
         DownloadInfo onBeforeFinished(@NonNull DownloadInfo info) throws Throwable;
     }
@@ -103,8 +249,15 @@ class DownloadThreadImpl implements DownloadThread {
                               @NonNull DataRepository repo,
                               @NonNull SettingsRepository pref,
                               @NonNull FileSystemFacade fs,
-                              @NonNull SystemFacade systemFacade) {
-        this(id, repo, pref, fs, systemFacade, null);
+                              @NonNull SystemFacade systemFacade,
+                              @NonNull ExecutorService pieceExecutor,
+                              @NonNull BandwidthLimiter bandwidthLimiter,
+                              @NonNull ProgressAggregator progressAggregator,
+                              @NonNull ProgressBus progressBus,
+                              @NonNull HostProfiler hostProfiler,
+                              @NonNull HostConnectionLimiter hostLimiter) {
+        this(id, repo, pref, fs, systemFacade, pieceExecutor, bandwidthLimiter, progressAggregator,
+                progressBus, hostProfiler, hostLimiter, null);
     }
 
     public DownloadThreadImpl(@NonNull UUID id,
@@ -112,27 +265,57 @@ class DownloadThreadImpl implements DownloadThread {
                               @NonNull SettingsRepository pref,
                               @NonNull FileSystemFacade fs,
                               @NonNull SystemFacade systemFacade,
+                              @NonNull ExecutorService pieceExecutor,
+                              @NonNull BandwidthLimiter bandwidthLimiter,
+                              @NonNull ProgressAggregator progressAggregator,
+                              @NonNull ProgressBus progressBus,
+                              @NonNull HostProfiler hostProfiler,
+                              @NonNull HostConnectionLimiter hostLimiter,
                               OnBeforeFinishedCallback onBeforeFinishedCallback) {
         this.id = id;
         this.repo = repo;
         this.pref = pref;
         this.fs = fs;
         this.systemFacade = systemFacade;
+        this.pieceExecutor = pieceExecutor;
+        this.bandwidthLimiter = bandwidthLimiter;
+        this.progressAggregator = progressAggregator;
+        this.progressBus = progressBus;
+        this.hostProfiler = hostProfiler;
+        this.hostLimiter = hostLimiter;
         this.onBeforeFinishedCallback = onBeforeFinishedCallback;
     }
 
     @Override
     public void requestStop() {
         stop = true;
-        if (exec != null)
-            exec.shutdownNow();
+        cancel();
     }
 
     @Override
     public void requestPause() {
         pause = true;
-        if (exec != null)
-            exec.shutdownNow();
+        cancel();
+    }
+
+    /*
+     * Doesn't wait for the blocking reads to time out: the connections of the
+     * pieces and the metadata request are closed, so that the reads fail at once,
+     * and the download thread is woken up if it's waiting for a piece retry
+     */
+
+    private void cancel() {
+        if (cancelTime == 0)
+            cancelTime = DateUtils.elapsedRealtime();
+        for (PieceThreadImpl pieceThread : pieceThreads)
+            pieceThread.requestStop();
+
+        HttpConnection connection = probeConnection;
+        if (connection != null)
+            connection.abort();
+        BlockingQueue<Future<PieceResult>> queue = completionQueue;
+        if (queue != null)
+            queue.offer(WAKE_UP);
     }
 
     @Override
@@ -155,6 +338,17 @@ class DownloadThreadImpl implements DownloadThread {
                 return new DownloadResult(id, DownloadResult.Status.FINISHED);
             }
 
+            host = HostProfiler.getHost(info.url);
+            long blockedTime = hostProfiler.getBlockedTime(host);
+            if (blockedTime > 0) {
+                /* Not counted as a failed attempt, since the host hasn't been requested */
+                Log.i(TAG, "id=" + id + ", host " + host + " is blocked for " + blockedTime + " ms");
+                info.statusCode = STATUS_WAITING_TO_RETRY;
+                info.statusMsg = "Host is unavailable";
+                info.retryAfter = (int) blockedTime;
+                return new DownloadResult(id, DownloadResult.Status.FINISHED);
+            }
+
             if (!info.hasMetadata)
                 info.statusCode = STATUS_FETCH_METADATA;
             else
@@ -180,10 +374,28 @@ class DownloadThreadImpl implements DownloadThread {
             }
 
             checkPiecesStatus(res.pieceResultList);
+            if (info.statusCode == STATUS_SUCCESS) {
+                updateHostProfile();
+            } else if (info.statusCode == STATUS_WAITING_TO_RETRY) {
+                /* Don't retry until the host is unblocked */
+                long blockedTime = hostProfiler.getBlockedTime(host);
+                if (blockedTime > 0)
+                    info.retryAfter = (int) blockedTime;
+            }
+            String checksum = null;
+            if (info.statusCode == STATUS_SUCCESS && hasher != null)
+                checksum = hasher.finish(info.totalBytes);
             StopRequest result = checkPauseStop();
             if ((result == null) && onBeforeFinishedCallback != null) {
-                info = onBeforeFinishedCallback.onBeforeFinished(info);
+                info = onBeforeFinishedCallback.onVerifyChecksum(info, checksum);
+                /* The damaged blocks are downloaded again to the .part file */
+                if (info.statusCode == STATUS_CHECKSUM_ERROR)
+                    refetchDamagedBlocks();
             }
+            if (info.statusCode == STATUS_SUCCESS && staging)
+                publishFile();
+            if ((result == null) && onBeforeFinishedCallback != null)
+                info = onBeforeFinishedCallback.onBeforeFinished(info);
 
         } catch (Throwable t) {
             Log.e(TAG, Log.getStackTraceString(t));
@@ -208,13 +420,23 @@ class DownloadThreadImpl implements DownloadThread {
     }
 
     private void finalizeThread() {
+        if (hasher != null) {
+            hasher.close();
+            hasher = null;
+        }
+        if (verifier != null) {
+            verifier.close();
+            verifier = null;
+        }
         if (info != null) {
             writeToDatabase(false);
+            if (info.statusCode == STATUS_SUCCESS)
+                ResumeJournal.delete(fs.getJournalDir(), id);
 
             boolean deletePref = pref.deleteFileIfError();
             if (StatusCode.isStatusError(info.statusCode) && deletePref) {
                 /* When error, free up any disk space */
-                Uri filePath = fs.getFileUri(info.dirPath, info.fileName);
+                Uri filePath = DownloadUtils.getDataFileUri(fs, info);
                 if (filePath != null) {
                     try {
                         fs.deleteFile(filePath);
@@ -226,9 +448,15 @@ class DownloadThreadImpl implements DownloadThread {
             }
         }
 
+        if (cancelTime > 0)
+            Log.i(TAG, "id=" + id + ", stopped in " +
+                    (DateUtils.elapsedRealtime() - cancelTime) + " ms");
+
         running = false;
+        staging = false;
         stop = false;
         pause = false;
+        cancelTime = 0;
     }
 
     private void checkPiecesStatus(List<Future<PieceResult>> resList) {
@@ -242,7 +470,7 @@ class DownloadThreadImpl implements DownloadThread {
             info.statusMsg = errMsg;
             Log.i(TAG, "id=" + id + ", " + errMsg);
 
-        } else if (pieces.size() != info.getNumPieces()) {
+        } else if (!hasAllPieces(pieces)) {
             String errMsg = "Some pieces are missing";
             info.statusCode = STATUS_UNKNOWN_ERROR;
             info.statusMsg = errMsg;
@@ -269,8 +497,12 @@ class DownloadThreadImpl implements DownloadThread {
                 boolean madeProgress = false;
 
                 for (DownloadPiece piece : pieces) {
-                    /* Some errors should be retryable, unless we fail too many times */
-                    if (Utils.isStatusRetryable(piece.statusCode)) {
+                    /*
+                     * Some errors should be retryable, unless we fail too many times.
+                     * The pieces that have stopped retrying in place wait to retry
+                     */
+                    if (Utils.isStatusRetryable(piece.statusCode) ||
+                            piece.statusCode == StatusCode.STATUS_WAITING_TO_RETRY) {
                         retry = true;
                         madeProgress = info.getDownloadedBytes(piece) > 0;
                         break;
@@ -295,6 +527,18 @@ class DownloadThreadImpl implements DownloadThread {
         }
     }
 
+    /*
+     * The piece indexes go in a row, since a split gives the new piece the next index
+     */
+
+    private boolean hasAllPieces(List<DownloadPiece> pieces) {
+        int maxIndex = -1;
+        for (DownloadPiece piece : pieces)
+            maxIndex = Math.max(piece.index, maxIndex);
+
+        return maxIndex + 1 == pieces.size();
+    }
+
     private void extractRetryAfter(List<Future<PieceResult>> resList) {
         long maxRetryAfter = 0;
         for (Future<PieceResult> f : resList) {
@@ -359,10 +603,9 @@ class DownloadThreadImpl implements DownloadThread {
                     return new ExecDownloadResult(ret, resList);
             }
 
-            /* Create file if doesn't exists or replace it */
             Uri filePath;
             try {
-                filePath = fs.createFile(info.dirPath, info.fileName, false);
+                filePath = createDataFile();
 
             } catch (IOException e) {
                 ret = new StopRequest(STATUS_FILE_ERROR, e);
@@ -398,25 +641,793 @@ class DownloadThreadImpl implements DownloadThread {
                     return new ExecDownloadResult(ret, resList);
             }
 
-            exec = (info.getNumPieces() == 1 ?
-                    Executors.newSingleThreadExecutor() :
-                    Executors.newFixedThreadPool(info.getNumPieces()));
-
-            ArrayList<PieceThread> pieceThreads = new ArrayList<>(info.getNumPieces());
-            for (int i = 0; i < info.getNumPieces(); i++)
-                pieceThreads.add(new PieceThreadImpl(id, i, repo, fs, systemFacade, pref));
+            List<DownloadPiece> pieces = repo.getPiecesById(id);
+            pieceCount = pieces.size();
+            if (pref.blockVerification() && info.partialSupport && info.totalBytes > 0) {
+                FileDescriptorWrapper w = fs.getFD(filePath);
+                if (w != null)
+                    verifier = BlockVerifier.open(id, repo, info.totalBytes, w);
+            }
+            openJournal(pieces);
+            if (!TextUtils.isEmpty(info.checksum) && info.totalBytes > 0) {
+                FileDescriptorWrapper w = fs.getFD(filePath);
+                if (w != null)
+                    hasher = StreamingHasher.open(w, info.checksum);
+            }
+            long downloadedBytes = 0;
+            for (DownloadPiece piece : pieces)
+                downloadedBytes += info.getDownloadedBytes(piece);
+            long startTime = DateUtils.elapsedRealtime();
+            liveCounter = progressBus.register(id, downloadedBytes);
+            bucket = bandwidthLimiter.register(id, info.priority, info.speedLimit);
+            hostLease = hostLimiter.register(host);
+            completionQueue = new LinkedBlockingQueue<>();
+            CompletionService<PieceResult> completionService =
+                    new ExecutorCompletionService<>(pieceExecutor, completionQueue);
+            /* Paused or stopped before the queue was set */
+            if (checkPauseStop() != null)
+                completionQueue.offer(WAKE_UP);
+            Map<Future<PieceResult>, PieceThreadImpl> runningPieces = new HashMap<>();
+            int hostConnections = hostProfiler.getMaxConnections(host);
+            if (info.adaptiveConnections && info.partialSupport && info.totalBytes > 0) {
+                /* Start from the number of connections learned by the previous downloads */
+                connectionController = new ConnectionController(DownloadInfo.MIN_PIECES,
+                        info.getNumPieces(), hostConnections);
+                adaptive = true;
+            } else if (hostConnections > 0 && hostProfiler.isThrottling(host)) {
+                hostConnectionLimit = hostConnections;
+            }
+            for (int i = 0; i < pieceCount; i++)
+                pendingPieces.add(i);
+            adjustConnections(completionService, runningPieces);
 
             /* Wait all threads */
-            resList = exec.invokeAll(pieceThreads);
+            resList = new ArrayList<>(pieceCount);
+            while (!runningPieces.isEmpty() ||
+                    ((!pendingPieces.isEmpty() || !retryPieces.isEmpty()) && canStartPieces())) {
+                Future<PieceResult> f = completionService.poll(getPollTimeout(), TimeUnit.MILLISECONDS);
+                if (f == null) {
+                    supervisePieces(completionService, runningPieces);
+                } else if (f != WAKE_UP) {
+                    PieceResult pieceResult = getPieceResult(f);
+                    if (pieceResult != null && pieceResult.throttled)
+                        throttled = true;
+                    PieceThreadImpl pieceThread = runningPieces.remove(f);
+                    if (pieceThread != null && onPieceFinished(pieceThread) &&
+                            !requeueThrottled(f) && !retryPiece(f)) {
+                        resList.add(f);
+                        if (pieceThread.isCompleted() && pendingPieces.isEmpty())
+                            stealWork(completionService, runningPieces);
+                    }
+                }
+                releaseRetries(runningPieces);
+                adjustConnections(completionService, runningPieces);
+                updateVerification(runningPieces);
+            }
+            if (retryRequest != null)
+                ret = retryRequest;
+            else if ((!pendingPieces.isEmpty() || !retryPieces.isEmpty()) && hostProfiler.isBlocked(host))
+                ret = new StopRequest(STATUS_WAITING_TO_RETRY, "Host is unavailable");
+
+            transferBytes = liveCounter.get() - downloadedBytes;
+            transferTime = DateUtils.elapsedRealtime() - startTime;
+            if (connectionController != null)
+                usedConnections = connectionController.getLimit();
 
         } catch (InterruptedException e) {
             requestStop();
+
+        } finally {
+            pieceThreads.clear();
+            hedges.clear();
+            pendingPieces.clear();
+            retryPieces.clear();
+            pieceFailures.clear();
+            savedPieces = null;
+            savedRunningPieces.clear();
+            retryRequest = null;
+            completionQueue = null;
+            connectionController = null;
+            if (bucket != null) {
+                bandwidthLimiter.unregister(bucket);
+                bucket = null;
+            }
+            if (hostLease != null) {
+                hostLimiter.unregister(hostLease);
+                hostLease = null;
+            }
+            fs.closeQuietly(journal);
+            journal = null;
+            /* Not taken by the first piece */
+            WarmConnections.getInstance().remove(id);
+            if (liveCounter != null) {
+                progressBus.unregister(id, liveCounter);
+                liveCounter = null;
+            }
         }
 
         return new ExecDownloadResult(ret, resList);
     }
 
+    /*
+     * Creates the file that the data is written to, or returns the existing one.
+     * With the staging, the data is written to the .part file, that gets the real
+     * name when the download is finished (see publishFile()), so that other apps
+     * don't see the incomplete file. The download that has already written data
+     * to the real file without the staging continues writing to it
+     */
+
+    private Uri createDataFile() throws IOException {
+        boolean hasData = hasDownloadedData();
+        if (!hasData)
+            claimFileName();
+        Uri partPath = fs.getFileUri(info.dirPath, info.getPartFileName());
+        if (partPath != null && !hasData)
+            /* Left by a download that doesn't exist anymore */
+            fs.truncate(partPath, 0);
+        if (partPath == null && pref.stagingFiles()) {
+            Uri realPath = fs.getFileUri(info.dirPath, info.fileName);
+            if (realPath == null || !hasData)
+                partPath = fs.createFile(info.dirPath, info.getPartFileName(), false);
+        }
+        staging = partPath != null;
+
+        return (staging ? partPath : fs.createFile(info.dirPath, info.fileName, false));
+    }
+
+    /*
+     * Gives the download a new name if an unfinished download added before it has
+     * the same name, e.g. both were added before any of them created its file.
+     * Must be called before the download writes any data, so that it doesn't use
+     * the file of the other one
+     */
+
+    private void claimFileName() throws IOException {
+        synchronized (NAME_LOCK) {
+            List<DownloadInfo> infoList = repo.getAllInfo();
+            boolean taken = false;
+            for (DownloadInfo other : infoList) {
+                if (other.id.equals(id) || other.statusCode == STATUS_SUCCESS ||
+                        !info.dirPath.equals(other.dirPath) || !info.fileName.equals(other.fileName))
+                    continue;
+                if (other.dateAdded < info.dateAdded ||
+                        (other.dateAdded == info.dateAdded && other.id.compareTo(id) < 0)) {
+                    taken = true;
+                    break;
+                }
+            }
+            if (!taken)
+                return;
+
+            Set<String> takenNames = DownloadUtils.getUnfinishedFileNames(infoList,
+                    info.dirPath, id, null);
+            String fileName = fs.makeFilename(info.dirPath, info.fileName, takenNames);
+            if (fileName == null)
+                throw new IOException("Unable to make a unique name for '" + info.fileName + "'");
+            Log.i(TAG, "id=" + id + ", '" + info.fileName + "' is taken by another download, rename to '" +
+                    fileName + "'");
+            info.fileName = fileName;
+            writeToDatabase(false);
+        }
+    }
+
+    private boolean hasDownloadedData() {
+        for (DownloadPiece piece : repo.getPiecesById(id)) {
+            if (info.getDownloadedBytes(piece) > 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    /*
+     * Gives the finished .part file the real name, replacing the file that
+     * may have been left by the previous download. It's a rename, unless the
+     * storage doesn't support it
+     */
+
+    private void publishFile() {
+        try {
+            FileSystemFacade.MoveMethod method = fs.moveFile(info.dirPath, info.getPartFileName(),
+                    info.dirPath, info.fileName, true);
+            Log.i(TAG, "id=" + id + ", file published by " + method);
+
+        } catch (IOException | FileAlreadyExistsException e) {
+            Log.e(TAG, "Unable to publish file: " + Log.getStackTraceString(e));
+            info.statusCode = STATUS_FILE_ERROR;
+            info.statusMsg = e.getMessage();
+        }
+    }
+
+    /*
+     * Rewinds the pieces to the durable progress, in case the previous run
+     * wasn't stopped cleanly, and to the last intact block, and starts a new journal if the durability
+     * level needs it. Without the journal the pieces fall back to the
+     * strict level, that doesn't need rewinding
+     */
+
+    private void openJournal(List<DownloadPiece> pieces) {
+        File journalDir = fs.getJournalDir();
+        for (DownloadPiece piece : ResumeJournal.reconcile(journalDir, id, pieces))
+            repo.updatePiece(piece);
+        if (verifier != null) {
+            for (DownloadPiece piece : verifier.verifyTails(pieces))
+                repo.updatePiece(piece);
+        }
+
+        if (pref.durability() == ResumeJournal.DURABILITY_STRICT) {
+            ResumeJournal.delete(journalDir, id);
+            return;
+        }
+        try {
+            journal = ResumeJournal.create(journalDir, id, pieces);
+
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to create journal: " + Log.getStackTraceString(e));
+            ResumeJournal.delete(journalDir, id);
+        }
+    }
+
+    private void submitPiece(CompletionService<PieceResult> completionService,
+                             Map<Future<PieceResult>, PieceThreadImpl> runningPieces,
+                             int pieceIndex) {
+        submitPiece(completionService, runningPieces, new PieceThreadImpl(id, pieceIndex, repo,
+                fs, systemFacade, pref, bucket, progressAggregator, journal, liveCounter, hostProfiler));
+    }
+
+    private void submitPiece(CompletionService<PieceResult> completionService,
+                             Map<Future<PieceResult>, PieceThreadImpl> runningPieces,
+                             PieceThreadImpl pieceThread) {
+        pieceThreads.add(pieceThread);
+        /* The download without the range support is restarted from the beginning */
+        if (hasher != null && !info.partialSupport)
+            hasher.reset();
+        /* Paused or stopped before the piece was added */
+        if (pause || stop)
+            pieceThread.requestStop();
+
+        runningPieces.put(completionService.submit(pieceThread), pieceThread);
+    }
+
+    /*
+     * Give the second half of the largest remainder among the running pieces
+     * to a new piece, so that the finished connection doesn't stay idle
+     * while the slowest piece is downloading its tail alone
+     */
+
+    private boolean stealWork(CompletionService<PieceResult> completionService,
+                              Map<Future<PieceResult>, PieceThreadImpl> runningPieces) {
+        if (!info.partialSupport || info.totalBytes <= 0 || !canStartPieces() ||
+                countConnections(runningPieces) >= getConnectionLimit())
+            return false;
+
+        PieceThreadImpl victim = null;
+        long maxRemaining = 0;
+        for (PieceThreadImpl pieceThread : runningPieces.values()) {
+            if (isRaced(pieceThread))
+                continue;
+            long remaining = pieceThread.remainingBytes();
+            if (remaining > maxRemaining) {
+                maxRemaining = remaining;
+                victim = pieceThread;
+            }
+        }
+        if (victim == null)
+            return false;
+
+        int newIndex = pieceCount;
+        if (victim.splitTail(newIndex, MIN_SPLIT_SIZE) == null)
+            return false;
+        pieceCount++;
+
+        try {
+            submitPiece(completionService, runningPieces, newIndex);
+
+        } catch (RejectedExecutionException e) {
+            /* The executor is shut down; the new piece will be downloaded on resume */
+            return false;
+        }
+
+        return true;
+    }
+
+    private int getConnectionLimit() {
+        return Math.min(getOwnConnectionLimit(), hostShare);
+    }
+
+    /*
+     * The limit of the download itself, without the share of the host budget
+     */
+
+    private int getOwnConnectionLimit() {
+        return (connectionController == null ? hostConnectionLimit : connectionController.getLimit());
+    }
+
+    /*
+     * Returns the number of running pieces, without hedges
+     * and pieces that have given their tail away
+     */
+
+    private int countConnections(Map<Future<PieceResult>, PieceThreadImpl> runningPieces) {
+        int count = 0;
+        for (PieceThreadImpl pieceThread : runningPieces.values()) {
+            if (!pieceThread.isHedge() && !pieceThread.isYielded())
+                count++;
+        }
+
+        return count;
+    }
+
+    /*
+     * Starts the pending pieces while there are free connections. For the adaptive
+     * download, also lets the controller change the number of connections. The excess
+     * pieces (over the controller limit or the share of the host budget) give their
+     * tails to new pending pieces, and new pieces of the adaptive download are split
+     * off when there are no pending pieces left
+     */
+
+    private void adjustConnections(CompletionService<PieceResult> completionService,
+                                   Map<Future<PieceResult>, PieceThreadImpl> runningPieces) {
+        long now = DateUtils.elapsedRealtime();
+        if (connectionController != null) {
+            int oldLimit = connectionController.getLimit();
+            connectionController.onTick(now, liveCounter.get());
+            int limit = connectionController.getLimit();
+            if (limit != oldLimit)
+                Log.i(TAG, "id=" + id + ", connections " + oldLimit + " -> " + limit);
+        }
+
+        int connections = countConnections(runningPieces);
+        int demand = getOwnConnectionLimit();
+        if (connectionController == null)
+            demand = Math.min(demand, connections + pendingPieces.size());
+        hostShare = hostLease.update(demand, connections);
+
+        if (info.partialSupport && info.totalBytes > 0) {
+            for (int excess = connections - getConnectionLimit(); excess > 0; excess--) {
+                if (!yieldPiece(runningPieces))
+                    break;
+            }
+        }
+
+        if (canStartPieces()) {
+            while (!pendingPieces.isEmpty() &&
+                    countConnections(runningPieces) < getConnectionLimit() &&
+                    (connectionController == null || connectionController.canStart(now)))
+                submitPiece(completionService, runningPieces, pendingPieces.poll());
+
+            if (connectionController != null && connectionController.canStart(now)) {
+                boolean added = true;
+                while (added && pendingPieces.isEmpty())
+                    added = stealWork(completionService, runningPieces);
+            }
+        }
+
+        liveCounter.setConnections(runningPieces.size());
+        usedConnections = Math.max(usedConnections, countConnections(runningPieces));
+    }
+
+    /*
+     * Frees the connection of the piece with the largest remainder,
+     * the remainder goes to a new pending piece
+     */
+
+    private boolean yieldPiece(Map<Future<PieceResult>, PieceThreadImpl> runningPieces) {
+        PieceThreadImpl victim = null;
+        long maxRemaining = 0;
+        for (PieceThreadImpl pieceThread : runningPieces.values()) {
+            if (isRaced(pieceThread) || pieceThread.isYielded())
+                continue;
+            long remaining = pieceThread.remainingBytes();
+            if (remaining > maxRemaining) {
+                maxRemaining = remaining;
+                victim = pieceThread;
+            }
+        }
+        if (victim == null)
+            return false;
+
+        int newIndex = pieceCount;
+        if (victim.yieldTail(newIndex, MIN_SPLIT_SIZE) == null)
+            return false;
+        pieceCount++;
+        pendingPieces.addFirst(newIndex);
+
+        return true;
+    }
+
+    /*
+     * Puts the piece of the adaptive download throttled by the server back to the pending
+     * pieces, to be restarted when the controller allows. Returns false if the piece
+     * result must be handled as usual
+     */
+
+    private boolean requeueThrottled(Future<PieceResult> f) {
+        if (connectionController == null)
+            return false;
+
+        PieceResult res = getPieceResult(f);
+        if (res == null || !res.throttled)
+            return false;
+        if (!connectionController.onThrottled(DateUtils.elapsedRealtime(), res.retryAfter))
+            return false;
+
+        Log.i(TAG, "id=" + id + ", piece " + res.getPieceIndex() + " throttled, retry after " +
+                res.retryAfter + " s");
+        pendingPieces.addFirst(res.getPieceIndex());
+
+        return true;
+    }
+
+    /*
+     * Schedules the restart of the piece failed with a retryable error, so that
+     * the other pieces keep transferring meanwhile. The backoff doubles with each
+     * failed attempt and is randomized, so that the pieces failed at once don't
+     * hit the server at once again. The failures are counted per piece and reset
+     * when the piece makes progress. Returns false if the piece has run out of
+     * attempts, then its error is handled by the whole download
+     */
+
+    private boolean retryPiece(Future<PieceResult> f) {
+        PieceResult res = getPieceResult(f);
+        if (res == null || !res.retry || !canStartPieces())
+            return false;
+
+        int pieceIndex = res.getPieceIndex();
+        Integer prevFailures = pieceFailures.get(pieceIndex);
+        int failures = (res.madeProgress || prevFailures == null ? 1 : prevFailures + 1);
+        if (failures > MAX_PIECE_RETRIES) {
+            Log.i(TAG, "id=" + id + ", piece " + pieceIndex + " failed " + MAX_PIECE_RETRIES +
+                    " times, retry the download");
+            return false;
+        }
+        pieceFailures.put(pieceIndex, failures);
+
+        long delay = Math.min(MIN_PIECE_RETRY_DELAY << (failures - 1), MAX_PIECE_RETRY_DELAY);
+        /* Anywhere between 0.5-1x the delay */
+        delay = delay / 2 + (long) (random.nextDouble() * delay / 2);
+        if (res.retryAfter > 0)
+            delay = Math.max(delay,
+                    Math.min(res.retryAfter, DownloadInfo.MAX_RETRY_AFTER) * DateUtils.SECOND_IN_MILLIS);
+        retryPieces.add(new PieceRetry(pieceIndex, DateUtils.elapsedRealtime() + delay));
+        Log.i(TAG, "id=" + id + ", piece " + pieceIndex + " retry " + failures + " in " + delay + " ms");
+
+        return true;
+    }
+
+    /*
+     * Moves the pieces whose backoff has expired to the front of the pending pieces.
+     * The pieces stop retrying in place if the network is lost, or if none of them is
+     * transferring and the earliest retry is further than the backoff limit (the server
+     * asked for it with Retry-After). Then the whole download is retried later
+     */
+
+    private void releaseRetries(Map<Future<PieceResult>, PieceThreadImpl> runningPieces) {
+        if (retryPieces.isEmpty() || !canStartPieces())
+            return;
+
+        if (!Utils.checkConnectivity(pref, systemFacade)) {
+            stopRetries(new StopRequest(STATUS_WAITING_FOR_NETWORK));
+            return;
+        }
+
+        long now = DateUtils.elapsedRealtime();
+        while (!retryPieces.isEmpty() && retryPieces.peek().retryTime <= now)
+            pendingPieces.addFirst(retryPieces.poll().pieceIndex);
+
+        if (runningPieces.isEmpty() && pendingPieces.isEmpty() && !retryPieces.isEmpty()) {
+            long delay = retryPieces.peek().retryTime - now;
+            if (delay > MAX_PIECE_RETRY_DELAY) {
+                info.retryAfter = (int) Math.min(delay, Integer.MAX_VALUE);
+                stopRetries(new StopRequest(STATUS_WAITING_TO_RETRY, "All pieces are waiting to retry"));
+            }
+        }
+    }
+
+    /*
+     * The pieces that haven't finished stay in the database
+     * with their status and are restarted with the download
+     */
+
+    private void stopRetries(StopRequest request) {
+        Log.i(TAG, "id=" + id + ", stop retrying pieces: " + request);
+        retryRequest = request;
+        retryPieces.clear();
+        pendingPieces.clear();
+    }
+
+    private boolean canStartPieces() {
+        return retryRequest == null && checkPauseStop() == null && !hostProfiler.isBlocked(host);
+    }
+
+    /*
+     * Wakes up the download thread when the earliest piece backoff expires
+     */
+
+    private long getPollTimeout() {
+        PieceRetry retry = retryPieces.peek();
+        if (retry == null)
+            return SUPERVISE_INTERVAL;
+
+        return constrain(retry.retryTime - DateUtils.elapsedRealtime(), 1, SUPERVISE_INTERVAL);
+    }
+
+    /*
+     * Hands the written data to the hasher and the block verifier,
+     * once per supervise interval. The hasher takes the contiguous
+     * prefix, the verifier takes the blocks that are fully written
+     */
+
+    private void updateVerification(Map<Future<PieceResult>, PieceThreadImpl> runningPieces) {
+        long now = DateUtils.elapsedRealtime();
+        if ((hasher == null && verifier == null) || now - lastHashTime < SUPERVISE_INTERVAL)
+            return;
+        lastHashTime = now;
+
+        List<long[]> ranges = getWrittenRanges(runningPieces);
+        if (hasher != null) {
+            long pos = 0;
+            for (long[] range : ranges) {
+                if (range[0] != pos)
+                    break;
+                pos = range[1];
+            }
+            hasher.advanceTo(pos);
+        }
+        if (verifier != null)
+            verifier.update(ranges);
+    }
+
+    /*
+     * Returns the written parts of the pieces as [start, end) pairs sorted by the
+     * start position. The running pieces report their range and how far their
+     * data has been written, it can be behind the progress. The pieces that
+     * aren't running are taken from the database, their data has reached the file.
+     * They don't change until a piece starts or stops, e.g. after a split
+     */
+
+    private List<long[]> getWrittenRanges(Map<Future<PieceResult>, PieceThreadImpl> runningPieces) {
+        HashMap<Integer, PieceThreadImpl> threads = new HashMap<>();
+        for (PieceThreadImpl pieceThread : runningPieces.values()) {
+            if (!pieceThread.isHedge())
+                threads.put(pieceThread.getPieceIndex(), pieceThread);
+        }
+        if (savedPieces == null || !savedRunningPieces.equals(threads.keySet())) {
+            savedPieces = repo.getPiecesById(id);
+            savedRunningPieces.clear();
+            savedRunningPieces.addAll(threads.keySet());
+        }
+
+        List<long[]> ranges = new ArrayList<>(savedPieces.size());
+        for (DownloadPiece piece : savedPieces) {
+            PieceThreadImpl pieceThread = threads.get(piece.index);
+            long[] range = (pieceThread == null ? null : pieceThread.getWrittenRange());
+            if (range == null && piece.size > 0) {
+                long endPos = piece.startPos + piece.size;
+                long writtenPos = (piece.statusCode == STATUS_SUCCESS ? endPos : piece.curBytes);
+                range = new long[]{piece.startPos, Math.min(writtenPos, endPos)};
+            }
+            if (range != null && range[1] > range[0])
+                ranges.add(range);
+        }
+        Collections.sort(ranges, (a, b) -> Long.compare(a[0], b[0]));
+
+        return ranges;
+    }
+
+    /*
+     * If the checksum of the file doesn't match, finds the damaged blocks and
+     * schedules the retry that downloads only them: the pieces are rebuilt so
+     * that the damaged blocks are pending and the rest of the file is finished.
+     * The download fails as before if no recorded block is damaged, e.g. the
+     * data was wrong when it was received or the checksum itself is wrong
+     */
+
+    private void refetchDamagedBlocks() {
+        if (verifier == null || info.numFailed + 1 >= pref.maxDownloadRetries())
+            return;
+        List<Integer> damaged = verifier.findDamaged();
+        if (damaged.isEmpty())
+            return;
+
+        Log.i(TAG, "id=" + id + ", " + damaged.size() + " damaged blocks, download them again");
+        List<DownloadPiece> pieces = new ArrayList<>();
+        long pos = 0;
+        int i = 0;
+        while (i < damaged.size()) {
+            /* Join the adjacent blocks into one piece */
+            int first = damaged.get(i);
+            int last = first;
+            while (++i < damaged.size() && damaged.get(i) == last + 1)
+                last++;
+            long startPos = DownloadBlock.blockStartPos(first);
+            long endPos = Math.min(DownloadBlock.blockStartPos(last + 1), info.totalBytes);
+            if (startPos > pos)
+                pieces.add(makePiece(pieces.size(), pos, startPos, true));
+            pieces.add(makePiece(pieces.size(), startPos, endPos, false));
+            pos = endPos;
+        }
+        if (pos < info.totalBytes)
+            pieces.add(makePiece(pieces.size(), pos, info.totalBytes, true));
+
+        repo.deleteBlocks(id, damaged);
+        repo.replacePieces(id, pieces);
+        ResumeJournal.delete(fs.getJournalDir(), id);
+        info.numFailed++;
+        info.statusCode = STATUS_WAITING_TO_RETRY;
+        info.statusMsg = null;
+        info.retryAfter = 0;
+    }
+
+    private DownloadPiece makePiece(int index, long startPos, long endPos, boolean finished) {
+        DownloadPiece piece = new DownloadPiece(id, index, endPos - startPos,
+                (finished ? endPos : startPos));
+        piece.startPos = startPos;
+        if (finished)
+            piece.statusCode = STATUS_SUCCESS;
+
+        return piece;
+    }
+
+    private PieceResult getPieceResult(Future<PieceResult> f) {
+        try {
+            return f.get();
+
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /*
+     * Saves what this download has learned about the host. The throughput
+     * isn't measured if too little data has been downloaded during this run
+     */
+
+    private void updateHostProfile() {
+        long throughput = 0;
+        if (transferBytes >= MIN_SPLIT_SIZE && transferTime > 0)
+            throughput = transferBytes * 1000 / transferTime;
+
+        hostProfiler.onDownloadFinished(host, info.partialSupport, throughput,
+                usedConnections, adaptive, throttled);
+    }
+
+    /*
+     * Returns false if the finished piece is a hedge that hasn't won the race,
+     * its result is dropped. If the piece is raced by a hedge, the hedge is stopped
+     */
+
+    private boolean onPieceFinished(PieceThreadImpl pieceThread) {
+        Hedge hedge = findHedge(pieceThread);
+        if (hedge != null)
+            hedges.remove(hedge);
+
+        if (pieceThread.isHedge()) {
+            /* Finished the whole range before the supervisor noticed that it's ahead */
+            return hedge != null && pieceThread.isCompleted() && promoteHedge(hedge);
+        }
+        if (hedge != null)
+            hedge.thread.requestStop();
+
+        return true;
+    }
+
+    private Hedge findHedge(PieceThreadImpl pieceThread) {
+        for (Hedge hedge : hedges) {
+            if (hedge.piece == pieceThread || hedge.thread == pieceThread)
+                return hedge;
+        }
+
+        return null;
+    }
+
+    private boolean isRaced(PieceThreadImpl pieceThread) {
+        return pieceThread.isHedge() || findHedge(pieceThread) != null;
+    }
+
+    /*
+     * Keeps the faster connection of each race and starts a hedge for pieces
+     * that haven't delivered any data for a while or are much slower than
+     * the others, so that the download doesn't wait for the read timeout
+     */
+
+    private void supervisePieces(CompletionService<PieceResult> completionService,
+                                 Map<Future<PieceResult>, PieceThreadImpl> runningPieces) {
+        long now = DateUtils.elapsedRealtime();
+        Iterator<Hedge> it = hedges.iterator();
+        while (it.hasNext()) {
+            Hedge hedge = it.next();
+            if (promoteHedge(hedge)) {
+                it.remove();
+            } else if (now - hedge.startTime >= HEDGE_TIMEOUT) {
+                Log.i(TAG, "id=" + id + ", hedge lost the race, keep the piece");
+                hedge.thread.requestStop();
+                it.remove();
+            }
+        }
+
+        if (!pref.hedgedRequests() || !info.partialSupport || info.totalBytes <= 0 ||
+                hedges.size() >= MAX_HEDGES || checkPauseStop() != null)
+            return;
+
+        ArrayList<Long> speeds = new ArrayList<>();
+        for (PieceThreadImpl pieceThread : runningPieces.values()) {
+            if (!pieceThread.isHedge() && pieceThread.getLastReadTime() > 0 &&
+                    now - pieceThread.getRequestStartTime() >= PieceThreadImpl.STALL_TIMEOUT)
+                speeds.add(pieceThread.getRecentSpeed());
+        }
+        long medianSpeed = 0;
+        if (speeds.size() >= MIN_PIECES_TO_COMPARE) {
+            Collections.sort(speeds);
+            medianSpeed = speeds.get(speeds.size() / 2);
+        }
+
+        for (PieceThreadImpl pieceThread : new ArrayList<>(runningPieces.values())) {
+            if (hedges.size() >= MAX_HEDGES)
+                break;
+            long lastReadTime = pieceThread.getLastReadTime();
+            if (lastReadTime <= 0 || isRaced(pieceThread))
+                continue;
+
+            boolean stalled = now - lastReadTime >= PieceThreadImpl.STALL_TIMEOUT;
+            boolean slow = medianSpeed > 0 &&
+                    now - pieceThread.getRequestStartTime() >= PieceThreadImpl.STALL_TIMEOUT &&
+                    pieceThread.getRecentSpeed() * STRAGGLER_SPEED_FACTOR < medianSpeed;
+            if (stalled || slow)
+                startHedge(completionService, runningPieces, pieceThread, now);
+        }
+    }
+
+    private void startHedge(CompletionService<PieceResult> completionService,
+                            Map<Future<PieceResult>, PieceThreadImpl> runningPieces,
+                            PieceThreadImpl pieceThread,
+                            long now) {
+        DownloadPiece tail = pieceThread.hedgeTail(MIN_SPLIT_SIZE);
+        if (tail == null)
+            return;
+
+        PieceThreadImpl hedgeThread = new PieceThreadImpl(id, tail, repo, fs, systemFacade, pref,
+                bucket, progressAggregator, journal, liveCounter, hostProfiler);
+        try {
+            submitPiece(completionService, runningPieces, hedgeThread);
+
+        } catch (RejectedExecutionException e) {
+            return;
+        }
+        hedges.add(new Hedge(pieceThread, hedgeThread, now));
+        Log.i(TAG, "id=" + id + ", start hedge from " + tail.startPos +
+                ", " + tail.size + " bytes");
+    }
+
+    private boolean promoteHedge(Hedge hedge) {
+        int newIndex = pieceCount;
+        if (!hedge.piece.handOverTail(hedge.thread, newIndex))
+            return false;
+        pieceCount++;
+        Log.i(TAG, "id=" + id + ", hedge won the race, new piece " + newIndex);
+
+        return true;
+    }
+
+    /*
+     * Probes the server in two stages. HEAD gets the headers without the body. If the
+     * server doesn't answer HEAD, or the answer lacks the length or range support, a GET
+     * with `Range: bytes=0-` verifies the range support empirically (206 or 200). Its body
+     * starts at the first byte either way, so the first piece continues reading it
+     * instead of sending a new request (see WarmConnections)
+     */
+
     private StopRequest fetchMetadata() {
+        StopRequest ret = probe(true);
+        if (ret == null && info.totalBytes > 0 && info.partialSupport)
+            return null;
+        if ((ret = checkPauseStop()) != null)
+            return ret;
+
+        return probe(false);
+    }
+
+    private StopRequest probe(boolean head) {
         final StopRequest[] ret = new StopRequest[1];
         final boolean[] connectWithReferer = new boolean[]{false};
 
@@ -432,21 +1443,36 @@ class DownloadThreadImpl implements DownloadThread {
             }
             connection.setReferer(connectWithReferer[0] ? info.url : null);
             connection.setTimeout(pref.timeout());
-            connection.contentRangeLength(true);
+            connection.setKeepAlive(pref.connectionReuse());
+            if (head)
+                connection.setMethod("HEAD");
             connection.setListener(new HttpConnection.Listener() {
+                private boolean movedPermanently = true;
+                private long requestTime;
+
                 @Override
                 public void onConnectionCreated(HttpURLConnection conn) {
+                    requestTime = DateUtils.elapsedRealtime();
                     ret[0] = addRequestHeaders(conn);
+                    if (!head)
+                        conn.setRequestProperty("Range", "bytes=0-");
                 }
 
                 @Override
                 public void onResponseHandle(HttpURLConnection conn, int code, String message) {
+                    /* Some servers just don't implement HEAD */
+                    if (!head || code / 100 == 2)
+                        hostProfiler.onResponse(host, conn, code, DateUtils.elapsedRealtime() - requestTime);
                     switch (code) {
                         case HTTP_OK, HTTP_PARTIAL -> {
-                            connectWithReferer[0] = parseOkHeaders(conn, connectWithReferer[0]);
+                            connectWithReferer[0] = parseOkHeaders(conn, code, head, connectWithReferer[0]);
                             StopRequest r;
-                            if ((r = checkPauseStop()) != null)
+                            if ((r = checkPauseStop()) != null) {
                                 ret[0] = r;
+                            } else if (!head && !connectWithReferer[0]) {
+                                connection.detach();
+                                WarmConnections.getInstance().put(id, conn);
+                            }
                         }
                         case HTTP_PRECON_FAILED -> ret[0] = new StopRequest(STATUS_CANNOT_RESUME,
                                 "Precondition failed");
@@ -462,11 +1488,23 @@ class DownloadThreadImpl implements DownloadThread {
 
                 @Override
                 public void onMoved(String newUrl, boolean permanently) {
-                    info.url = newUrl;
+                    /*
+                     * A temporary target may expire, so keep the URL before it;
+                     * pieces follow the rest of the chain via the redirect cache
+                     */
+                    movedPermanently &= permanently;
+                    if (movedPermanently)
+                        info.url = newUrl;
                 }
 
                 @Override
                 public void onIOException(IOException e) {
+                    /* The connection is aborted on pause or stop */
+                    StopRequest cancelRequest = checkPauseStop();
+                    if (cancelRequest != null) {
+                        ret[0] = cancelRequest;
+                        return;
+                    }
                     if (e instanceof ProtocolException && e.getMessage().startsWith("Unexpected status line"))
                         ret[0] = new StopRequest(STATUS_UNHANDLED_HTTP_CODE, e);
                     else if (e instanceof InterruptedIOException)
@@ -474,6 +1512,13 @@ class DownloadThreadImpl implements DownloadThread {
                     else
                         /* Trouble with low-level sockets */
                         ret[0] = new StopRequest(STATUS_HTTP_DATA_ERROR, e);
+                    /*
+                     * Some servers drop the connection on HEAD. The GET that follows
+                     * is counted, so the host fails only if the whole probe fails.
+                     * A lost or changed network isn't the fault of the host either
+                     */
+                    if (!head && Utils.isSameNetwork(pref, systemFacade, networkType))
+                        hostProfiler.onFailure(host);
                 }
 
                 @Override
@@ -481,7 +1526,15 @@ class DownloadThreadImpl implements DownloadThread {
                     ret[0] = new StopRequest(STATUS_TOO_MANY_REDIRECTS, "Too many redirects");
                 }
             });
-            connection.run();
+            probeConnection = connection;
+            try {
+                if ((ret[0] = checkPauseStop()) != null)
+                    return ret[0];
+                connection.run();
+
+            } finally {
+                probeConnection = null;
+            }
 
         } while (connectWithReferer[0]);
 
@@ -498,7 +1551,10 @@ class DownloadThreadImpl implements DownloadThread {
         return null;
     }
 
-    private boolean parseOkHeaders(HttpURLConnection conn, boolean needsRefererPrevValue) {
+    private boolean parseOkHeaders(HttpURLConnection conn,
+                                   int code,
+                                   boolean head,
+                                   boolean needsRefererPrevValue) {
         String mimeType = Intent.normalizeMimeType(conn.getContentType());
         String fileName = null;
         /* Try to determine the MIME type by the filename extension */
@@ -554,8 +1610,11 @@ class DownloadThreadImpl implements DownloadThread {
                     conn.getHeaderField("Content-Range")
             );
         }
-        info.partialSupport = "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges")) ||
-                conn.getHeaderField("Content-Range") != null;
+        if (head)
+            info.partialSupport = "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges"));
+        else
+            /* The server either honours the requested range or ignores it */
+            info.partialSupport = code == HTTP_PARTIAL;
 
         Header eTagHeader = null;
         Header refererHeader = null;
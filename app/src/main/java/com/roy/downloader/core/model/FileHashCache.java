@@ -0,0 +1,118 @@
+package com.roy.downloader.core.model;
+
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.roy.downloader.core.model.data.entity.DownloadInfo;
+import com.roy.downloader.core.model.data.entity.FileHash;
+import com.roy.downloader.core.storage.DataRepository;
+import com.roy.downloader.core.system.FileDescriptorWrapper;
+import com.roy.downloader.core.system.FileSystemFacade;
+import com.roy.downloader.core.utils.DigestUtils;
+import com.roy.downloader.core.utils.DownloadUtils;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Stores the hashes of the downloaded files (see FileHash), so that they are computed
+ * once per file instead of reading the whole file each time the hash is needed.
+ * A stored hash is valid while the size and the modification time of the file
+ * are the same as when it was computed.
+ */
+
+class FileHashCache {
+    @SuppressWarnings("unused")
+    private static final String TAG = FileHashCache.class.getSimpleName();
+
+    private final DataRepository repo;
+    private final FileSystemFacade fs;
+
+    FileHashCache(@NonNull DataRepository repo, @NonNull FileSystemFacade fs) {
+        this.repo = repo;
+        this.fs = fs;
+    }
+
+    /*
+     * Returns the hashes of the file in the order of the algorithms (see MessageDigest).
+     * The hashes that aren't stored are computed in one pass over the file.
+     * A hash is null if the file doesn't exist or can't be read
+     */
+
+    @NonNull
+    String[] get(@NonNull DownloadInfo info, @NonNull String... algorithms) throws IOException {
+        String[] hashes = new String[algorithms.length];
+        Uri filePath = DownloadUtils.getDataFileUri(fs, info);
+        if (filePath == null)
+            return hashes;
+
+        long size = fs.getFileSize(filePath);
+        long lastModified = fs.getLastModified(filePath);
+        List<String> missing = new ArrayList<>(algorithms.length);
+        for (int i = 0; i < algorithms.length; i++) {
+            FileHash hash = repo.getFileHash(info.id, algorithms[i]);
+            if (hash != null && hash.matches(size, lastModified))
+                hashes[i] = hash.hash;
+            else
+                missing.add(algorithms[i]);
+        }
+        if (missing.isEmpty())
+            return hashes;
+
+        String[] computed = compute(info, missing.toArray(new String[0]));
+        for (int i = 0, j = 0; i < algorithms.length; i++) {
+            if (hashes[i] == null)
+                hashes[i] = computed[j++];
+        }
+
+        return hashes;
+    }
+
+    /*
+     * Reads the whole file even if the hashes are stored, and stores the result
+     */
+
+    @NonNull
+    String[] compute(@NonNull DownloadInfo info, @NonNull String... algorithms) throws IOException {
+        String[] hashes = null;
+        Uri filePath = DownloadUtils.getDataFileUri(fs, info);
+        if (filePath != null) {
+            try (FileDescriptorWrapper w = fs.getFD(filePath)) {
+                if (w != null) {
+                    FileDescriptor fd = w.open("r");
+                    try (FileInputStream is = new FileInputStream(fd)) {
+                        hashes = DigestUtils.makeHashes(is, algorithms);
+                    }
+                }
+            }
+        }
+        if (hashes == null)
+            return new String[algorithms.length];
+
+        for (int i = 0; i < algorithms.length; i++)
+            put(info, algorithms[i], hashes[i]);
+
+        return hashes;
+    }
+
+    /*
+     * Stores the hash computed elsewhere, e.g. during the download.
+     * The file must not be changed since the hash was computed
+     */
+
+    void put(@NonNull DownloadInfo info, @NonNull String algorithm, @NonNull String hash) {
+        Uri filePath = DownloadUtils.getDataFileUri(fs, info);
+        if (filePath == null)
+            return;
+
+        long size = fs.getFileSize(filePath);
+        if (size < 0)
+            return;
+        repo.addFileHash(new FileHash(info.id, algorithm, hash.toLowerCase(),
+                size, fs.getLastModified(filePath)));
+    }
+}
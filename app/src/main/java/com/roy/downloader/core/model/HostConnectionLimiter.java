@@ -0,0 +1,131 @@
+package com.roy.downloader.core.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Shares the connection budget of each host between the downloads from it.
+ * Each download reports how many connections it could use (its demand) and
+ * gets a max-min fair share: the downloads that need less than an equal share
+ * keep what they need, the rest of the budget is split equally between the
+ * others. A share isn't given while the other downloads still use it, they
+ * give it back on their next adjustment. Every download with a demand gets at
+ * least one connection, so that it isn't starved if the host has more
+ * downloads than the budget. Pieces beyond the share aren't submitted to the
+ * shared executor, so downloads from other hosts aren't held up.
+ */
+
+public class HostConnectionLimiter {
+    @SuppressWarnings("unused")
+    private static final String TAG = HostConnectionLimiter.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+    /* Guarded by this */
+    private final HashMap<String, List<Lease>> hosts = new HashMap<>();
+    private int maxConnections;
+
+    /*
+     * The connections of one download. Downloads with an unknown
+     * host are not limited
+     */
+
+    public class Lease {
+        final String host;
+        private int demand;
+        private int used;
+        private int share = Integer.MAX_VALUE;
+
+        Lease(String host) {
+            this.host = host;
+        }
+
+        /*
+         * Reports the number of connections that the download could use and uses
+         * at the moment. Returns the number of connections it's allowed to use
+         */
+
+        int update(int demand, int used) {
+            if (host == null)
+                return Integer.MAX_VALUE;
+
+            synchronized (HostConnectionLimiter.this) {
+                this.demand = demand;
+                this.used = used;
+                List<Lease> leases = hosts.get(host);
+                if (leases == null)
+                    return Integer.MAX_VALUE;
+                distribute(leases);
+
+                return getLimit(leases);
+            }
+        }
+
+        private int getLimit(List<Lease> leases) {
+            int othersUsed = 0;
+            for (Lease lease : leases) {
+                if (lease != this)
+                    othersUsed += lease.used;
+            }
+
+            return Math.max(Math.min(share, maxConnections - othersUsed), Math.min(share, 1));
+        }
+    }
+
+    HostConnectionLimiter(int maxConnections) {
+        this.maxConnections = Math.max(maxConnections, 1);
+    }
+
+    @NonNull
+    synchronized Lease register(String host) {
+        Lease lease = new Lease(host);
+        if (host == null)
+            return lease;
+
+        List<Lease> leases = hosts.get(host);
+        if (leases == null) {
+            leases = new ArrayList<>();
+            hosts.put(host, leases);
+        }
+        leases.add(lease);
+
+        return lease;
+    }
+
+    synchronized void unregister(@NonNull Lease lease) {
+        if (lease.host == null)
+            return;
+
+        List<Lease> leases = hosts.get(lease.host);
+        if (leases == null)
+            return;
+        leases.remove(lease);
+        if (leases.isEmpty())
+            hosts.remove(lease.host);
+    }
+
+    public synchronized void setMaxConnections(int maxConnections) {
+        this.maxConnections = Math.max(maxConnections, 1);
+    }
+
+    /*
+     * Max-min fair distribution, the smallest demands are satisfied first
+     */
+
+    private void distribute(List<Lease> leases) {
+        ArrayList<Lease> sorted = new ArrayList<>(leases);
+        Collections.sort(sorted, (a, b) -> Integer.compare(a.demand, b.demand));
+
+        int remaining = maxConnections;
+        for (int i = 0; i < sorted.size(); i++) {
+            Lease lease = sorted.get(i);
+            int fairShare = Math.max(remaining / (sorted.size() - i), 1);
+            lease.share = Math.min(lease.demand, fairShare);
+            remaining = Math.max(remaining - lease.share, 0);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.roy.downloader.core.model;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.roy.downloader.core.model.data.entity.HostProfile;
+import com.roy.downloader.core.storage.DataRepository;
+import com.roy.downloader.core.utils.DateUtils;
+
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.roy.downloader.core.HttpConnection.HTTP_TOO_MANY_REQUESTS;
+import static java.net.HttpURLConnection.HTTP_UNAVAILABLE;
+
+/*
+ * Collects the per-host statistics of all downloads (see HostProfile). The requests
+ * update the profile in memory, it's saved when a download finishes or the host
+ * gets blocked. Also acts as a circuit breaker: after several failed requests in
+ * a row the host is blocked for a while, so that the downloads don't burn their
+ * retries on it. Failures while the host is blocked are ignored, e.g. the requests that
+ * were already running. The block time doubles with each block in a row, until a request
+ * to the host succeeds.
+ */
+
+class HostProfiler {
+    @SuppressWarnings("unused")
+    private static final String TAG = HostProfiler.class.getSimpleName();
+
+    /* The weight of a new sample in the averages */
+    private static final float SMOOTHING = 0.2f;
+    /* The number of failed requests in a row that blocks the host */
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long MIN_BLOCK_TIME = 30 * 1000; /* ms */
+    private static final long MAX_BLOCK_TIME = 30 * 60 * 1000; /* ms */
+    /* The share of throttled requests from which the concurrency of the host is limited */
+    private static final float MAX_THROTTLE_RATE = 0.1f;
+    /* Profiles that haven't been updated for this time are deleted */
+    private static final long MAX_AGE = 90L * 24 * 60 * 60 * 1000; /* ms */
+    private static final int MAX_CACHED = 64;
+
+    private final DataRepository repo;
+    /* In access order, so that the least recently used profile is evicted */
+    private final LinkedHashMap<String, HostProfile> profiles =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, HostProfile> eldest) {
+                    return size() > MAX_CACHED;
+                }
+            };
+    private boolean pruned;
+
+    HostProfiler(@NonNull DataRepository repo) {
+        this.repo = repo;
+    }
+
+    @Nullable
+    static String getHost(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return (TextUtils.isEmpty(host) ? null : host.toLowerCase(Locale.US));
+
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Returns the time until the host is unblocked, ms, or 0 if it isn't blocked
+     */
+
+    synchronized long getBlockedTime(String host) {
+        if (host == null)
+            return 0;
+
+        HostProfile profile = load(host);
+
+        return Math.max(profile.blockedUntil - System.currentTimeMillis(), 0);
+    }
+
+    boolean isBlocked(String host) {
+        return getBlockedTime(host) > 0;
+    }
+
+    /*
+     * Returns the number of connections that the host serves
+     * without throttling, or 0 if it's unknown
+     */
+
+    synchronized int getMaxConnections(String host) {
+        return (host == null ? 0 : load(host).maxConnections);
+    }
+
+    synchronized boolean isThrottling(String host) {
+        return host != null && load(host).throttleRate >= MAX_THROTTLE_RATE;
+    }
+
+    /*
+     * Called when the server responds to the request, ttfb is the time
+     * from the start of the request to the response, ms
+     */
+
+    synchronized void onResponse(String host, @NonNull HttpURLConnection conn, int code, long ttfb) {
+        if (host == null)
+            return;
+
+        HostProfile profile = load(host);
+        boolean throttled = code == HTTP_UNAVAILABLE || code == HTTP_TOO_MANY_REQUESTS;
+        boolean failed = throttled || code >= 500;
+        profile.numRequests++;
+        profile.ttfb = (profile.numRequests == 1 ? ttfb : average(profile.ttfb, ttfb));
+        profile.throttleRate = average(profile.throttleRate, throttled ? 1 : 0);
+        profile.failureRate = average(profile.failureRate, failed ? 1 : 0);
+        long retryAfter = 0;
+        if (throttled) {
+            retryAfter = conn.getHeaderFieldInt("Retry-After", -1);
+            if (retryAfter > 0)
+                profile.retryAfter = retryAfter;
+        }
+
+        if (failed) {
+            onFailed(profile, retryAfter);
+        } else {
+            profile.consecutiveFailures = 0;
+            profile.numBlocks = 0;
+        }
+    }
+
+    /*
+     * Called when the request fails without a response, e.g. the connection is refused or timed out.
+     * Failures caused by the device losing or changing the network must not be reported
+     */
+
+    synchronized void onFailure(String host) {
+        if (host == null)
+            return;
+
+        HostProfile profile = load(host);
+        profile.numRequests++;
+        profile.failureRate = average(profile.failureRate, 1);
+        onFailed(profile, 0);
+    }
+
+    /*
+     * Called when the download has been finished successfully. The connections are
+     * the limit chosen by ConnectionController if adaptive, or the maximum number
+     * of pieces downloaded at once otherwise. The throughput is 0 if the download
+     * is too short to measure it
+     */
+
+    synchronized void onDownloadFinished(String host,
+                                         boolean partialSupport,
+                                         long throughput,
+                                         int connections,
+                                         boolean adaptive,
+                                         boolean throttled) {
+        if (host == null)
+            return;
+
+        HostProfile profile = load(host);
+        profile.rangeSupport = (partialSupport ?
+                HostProfile.RANGE_SUPPORTED :
+                HostProfile.RANGE_UNSUPPORTED);
+        if (throughput > 0)
+            profile.throughput = (profile.throughput == 0 ?
+                    throughput :
+                    average(profile.throughput, throughput));
+
+        if (partialSupport && connections > 0) {
+            if (adaptive)
+                profile.maxConnections = connections;
+            else if (throttled)
+                profile.maxConnections = Math.max(connections / 2, 1);
+            else if (profile.maxConnections > 0 && connections > profile.maxConnections)
+                profile.maxConnections = connections;
+        }
+        save(profile);
+    }
+
+    /*
+     * The host isn't blocked for less than the Retry-After time, s
+     */
+
+    private void onFailed(HostProfile profile, long retryAfter) {
+        long now = System.currentTimeMillis();
+        if (profile.blockedUntil > now || ++profile.consecutiveFailures < FAILURE_THRESHOLD)
+            return;
+
+        int shift = Math.min(profile.numBlocks, 16);
+        long blockTime = Math.min(MIN_BLOCK_TIME << shift, MAX_BLOCK_TIME);
+        blockTime = Math.max(blockTime, Math.min(retryAfter * DateUtils.SECOND_IN_MILLIS,
+                MAX_BLOCK_TIME));
+        profile.blockedUntil = now + blockTime;
+        profile.numBlocks++;
+        Log.i(TAG, "Block " + profile.host + " for " + blockTime + " ms after " +
+                profile.consecutiveFailures + " failures");
+        /* After the block the host gets the same number of failures before the next one */
+        profile.consecutiveFailures = 0;
+        save(profile);
+    }
+
+    private HostProfile load(String host) {
+        HostProfile profile = profiles.get(host);
+        if (profile != null)
+            return profile;
+
+        try {
+            profile = repo.getHostProfile(host);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to load profile: " + Log.getStackTraceString(e));
+        }
+        if (profile == null)
+            profile = new HostProfile(host);
+        profiles.put(host, profile);
+
+        return profile;
+    }
+
+    private void save(HostProfile profile) {
+        long now = System.currentTimeMillis();
+        profile.lastUpdate = now;
+        try {
+            if (!pruned) {
+                repo.deleteHostProfilesOlderThan(now - MAX_AGE);
+                pruned = true;
+            }
+            repo.saveHostProfile(new HostProfile(profile));
+
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to save profile: " + Log.getStackTraceString(e));
+        }
+    }
+
+    private static long average(long value, long sample) {
+        return (long) (value + (sample - value) * SMOOTHING);
+    }
+
+    private static float average(float value, float sample) {
+        return value + (sample - value) * SMOOTHING;
+    }
+}
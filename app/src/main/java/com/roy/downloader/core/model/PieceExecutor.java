@@ -0,0 +1,152 @@
+package com.roy.downloader.core.model;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The bounded thread pool shared by the pieces of all downloads.
+ * Pieces that exceed the max connections limit wait in the queue;
+ * idle threads are released after a timeout, so that no threads are
+ * kept when there are no active downloads.
+ */
+
+public class PieceExecutor extends ThreadPoolExecutor {
+    @SuppressWarnings("unused")
+    private static final String TAG = PieceExecutor.class.getSimpleName();
+
+    private static final long KEEP_ALIVE_TIME = 60; /* sec */
+
+    /* Number of pieces that were queued because all threads were busy */
+    private final AtomicLong numSaturated = new AtomicLong();
+    private final AtomicLong numExecuted = new AtomicLong();
+    /* Time spent by pieces in the queue, ns */
+    private final AtomicLong totalQueueDelay = new AtomicLong();
+    private final AtomicLong maxQueueDelay = new AtomicLong();
+
+    public static class Stats {
+        public final int maxConnections;
+        public final int activeCount;
+        public final int queueSize;
+        public final int largestPoolSize;
+        public final long numExecuted;
+        public final long numSaturated;
+        /* ms */
+        public final long avgQueueDelay;
+        public final long maxQueueDelay;
+
+        Stats(int maxConnections, int activeCount, int queueSize, int largestPoolSize,
+              long numExecuted, long numSaturated, long avgQueueDelay, long maxQueueDelay) {
+            this.maxConnections = maxConnections;
+            this.activeCount = activeCount;
+            this.queueSize = queueSize;
+            this.largestPoolSize = largestPoolSize;
+            this.numExecuted = numExecuted;
+            this.numSaturated = numSaturated;
+            this.avgQueueDelay = avgQueueDelay;
+            this.maxQueueDelay = maxQueueDelay;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "maxConnections=" + maxConnections +
+                    ", activeCount=" + activeCount +
+                    ", queueSize=" + queueSize +
+                    ", largestPoolSize=" + largestPoolSize +
+                    ", numExecuted=" + numExecuted +
+                    ", numSaturated=" + numSaturated +
+                    ", avgQueueDelay=" + avgQueueDelay +
+                    ", maxQueueDelay=" + maxQueueDelay +
+                    '}';
+        }
+    }
+
+    private static class QueuedTask implements Runnable {
+        final Runnable task;
+        final long enqueueTime = System.nanoTime();
+
+        QueuedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private static class PieceThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            return new Thread(r, "PieceThread-" + threadNumber.getAndIncrement());
+        }
+    }
+
+    PieceExecutor(int maxConnections) {
+        super(maxConnections, maxConnections,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new PieceThreadFactory());
+        allowCoreThreadTimeOut(true);
+    }
+
+    public synchronized void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0)
+            throw new IllegalArgumentException("Connections number can't be less or equal zero");
+
+        /* The core size can't be greater than the maximum size at any time */
+        if (maxConnections > getMaximumPoolSize()) {
+            setMaximumPoolSize(maxConnections);
+            setCorePoolSize(maxConnections);
+        } else {
+            setCorePoolSize(maxConnections);
+            setMaximumPoolSize(maxConnections);
+        }
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        if (getActiveCount() >= getMaximumPoolSize())
+            numSaturated.incrementAndGet();
+
+        super.execute(new QueuedTask(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+
+        if (!(r instanceof QueuedTask))
+            return;
+
+        long delay = System.nanoTime() - ((QueuedTask) r).enqueueTime;
+        numExecuted.incrementAndGet();
+        totalQueueDelay.addAndGet(delay);
+        long max;
+        do {
+            max = maxQueueDelay.get();
+        } while (delay > max && !maxQueueDelay.compareAndSet(max, delay));
+    }
+
+    public Stats getStats() {
+        long executed = numExecuted.get();
+
+        return new Stats(getMaximumPoolSize(),
+                getActiveCount(),
+                getQueue().size(),
+                getLargestPoolSize(),
+                executed,
+                numSaturated.get(),
+                executed == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalQueueDelay.get() / executed),
+                TimeUnit.NANOSECONDS.toMillis(maxQueueDelay.get()));
+    }
+}
@@ -1,5 +1,6 @@
 package com.roy.downloader.core.model;
 
+import android.net.NetworkInfo;
 import android.net.Uri;
 import android.text.TextUtils;
 import android.util.Log;
@@ -7,6 +8,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import com.roy.downloader.core.HttpConnection;
+import com.roy.downloader.core.WarmConnections;
 import com.roy.downloader.core.model.data.PieceResult;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
 import com.roy.downloader.core.model.data.entity.DownloadPiece;
@@ -17,6 +19,7 @@ import com.roy.downloader.core.system.FileDescriptorWrapper;
 import com.roy.downloader.core.system.FileSystemFacade;
 import com.roy.downloader.core.system.SystemFacade;
 import com.roy.downloader.core.utils.DateUtils;
+import com.roy.downloader.core.utils.DownloadUtils;
 import com.roy.downloader.core.utils.Utils;
 
 import java.io.FileDescriptor;
@@ -27,9 +30,15 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.security.GeneralSecurityException;
 import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
 
+import static com.roy.downloader.core.HttpConnection.HTTP_TOO_MANY_REQUESTS;
 import static com.roy.downloader.core.model.data.StatusCode.STATUS_BAD_REQUEST;
 import static com.roy.downloader.core.model.data.StatusCode.STATUS_CANNOT_RESUME;
 import static com.roy.downloader.core.model.data.StatusCode.STATUS_FILE_ERROR;
@@ -62,17 +71,49 @@ class PieceThreadImpl extends Thread implements PieceThread {
     private static final int DEFAULT_MIN_PROGRESS_STEP = 65536;
     /* The minimum amount of time that has to elapse before the progress bar gets updated, ms */
     private static final long MIN_PROGRESS_TIME = 2000;
-    private static final long MILLIS_IN_SEC = 1000;
+    private static final long NANOS_IN_SEC = 1_000_000_000L;
+    /* How often the transfer buffer size is adjusted to the throughput, ns */
+    private static final long BUFFER_RESIZE_INTERVAL = 500_000_000L;
+    /* The number of buffers that can wait for the disk writer before the piece stops reading */
+    private static final int WRITE_RING_SIZE = 4;
+    /* How often the data is flushed with the balanced durability level, ms */
+    private static final long BALANCED_SYNC_INTERVAL = 30000;
+    /* The connection is considered stalled if it delivers no data for this time, ms */
+    static final long STALL_TIMEOUT = 5000;
 
     private DownloadPiece piece;
     private final UUID infoId;
-    private final int pieceIndex;
+    /* Assigned when the hedge wins */
+    private int pieceIndex;
+    /*
+     * The piece races another piece for the rest of its range and isn't
+     * saved (or counted in the progress) until it wins, see handOverTail()
+     */
+    private volatile boolean hedge;
     private long startPos, endPos;
+    /* Guards the piece range, that can be shrunk by the download thread during transfer */
+    private final Object rangeLock = new Object();
+    /* The end of the data read from the network, this part can't be given to another piece */
+    private long reservedPos;
+    /* Indicates that the piece range has been downloaded during this run */
+    private volatile boolean completed;
+    /* The remaining bytes have been given to another piece, see yieldTail() */
+    private volatile boolean yielded;
+    /* Guards the pool thread that runs the piece, so that it isn't interrupted after the piece finishes */
+    private final Object runnerLock = new Object();
+    private Thread runner;
+    private volatile boolean stopRequested;
+    private HttpConnection connection;
     /* Details from the last time we pushed a database update */
     private long lastUpdateBytes = 0;
     private long lastUpdateTime = 0;
-    private long bytesReadBandwidth = 0;
-    private long lastBandwidthUpdateTime = 0;
+    /* Time of the last data flush followed by a journal record */
+    private long lastSyncTime = 0;
+    /* Time when the last data was received, or when the request was started; 0 if not running */
+    private volatile long lastReadTime;
+    /* Time when the current request was started */
+    private volatile long requestStartTime;
+    private volatile long recentSpeed;
     /* Time when current sample started */
     private long speedSampleStart;
     /* Bytes transferred since current sample started */
@@ -81,32 +122,101 @@ class PieceThreadImpl extends Thread implements PieceThread {
     private final FileSystemFacade fs;
     private final SystemFacade systemFacade;
     private final SettingsRepository pref;
+    private final BandwidthLimiter.Bucket bucket;
+    private final ProgressAggregator progressAggregator;
+    private volatile ProgressAggregator.Entry progress;
+    /* Null if the data is flushed before each progress update */
+    private final ResumeJournal journal;
+    private final int durability;
+    private final ProgressBus.Counter liveCounter;
+    private final HostProfiler hostProfiler;
+    /* The host of the download URL, null if unknown */
+    private String host;
     private final PieceResult result;
 
     private FileDescriptor outFd;
     private FileOutputStream fout;
     private InputStream in;
+    /* Not null while the data is written through the disk writer */
+    private volatile WriteRing writeRing;
 
     public PieceThreadImpl(@NonNull UUID infoId,
                            int pieceIndex,
                            @NonNull DataRepository repo,
                            @NonNull FileSystemFacade fs,
                            @NonNull SystemFacade systemFacade,
-                           @NonNull SettingsRepository pref) {
+                           @NonNull SettingsRepository pref,
+                           @NonNull BandwidthLimiter.Bucket bucket,
+                           @NonNull ProgressAggregator progressAggregator,
+                           ResumeJournal journal,
+                           @NonNull ProgressBus.Counter liveCounter,
+                           @NonNull HostProfiler hostProfiler) {
         this.infoId = infoId;
         this.pieceIndex = pieceIndex;
         this.repo = repo;
         this.fs = fs;
         this.systemFacade = systemFacade;
         this.pref = pref;
+        this.bucket = bucket;
+        this.progressAggregator = progressAggregator;
+        this.progress = progressAggregator.register(infoId, pieceIndex);
+        this.journal = journal;
+        this.durability = (journal == null ? ResumeJournal.DURABILITY_STRICT : pref.durability());
+        this.liveCounter = liveCounter;
+        this.hostProfiler = hostProfiler;
         this.result = new PieceResult(infoId, pieceIndex);
     }
 
+    /*
+     * Creates a hedge for the given tail of another piece (see hedgeTail())
+     */
+
+    public PieceThreadImpl(@NonNull UUID infoId,
+                           @NonNull DownloadPiece tail,
+                           @NonNull DataRepository repo,
+                           @NonNull FileSystemFacade fs,
+                           @NonNull SystemFacade systemFacade,
+                           @NonNull SettingsRepository pref,
+                           @NonNull BandwidthLimiter.Bucket bucket,
+                           @NonNull ProgressAggregator progressAggregator,
+                           ResumeJournal journal,
+                           @NonNull ProgressBus.Counter liveCounter,
+                           @NonNull HostProfiler hostProfiler) {
+        this(infoId, tail.index, repo, fs, systemFacade, pref, bucket, progressAggregator,
+                journal, liveCounter, hostProfiler);
+        this.piece = tail;
+        this.hedge = true;
+    }
+
+    /*
+     * The piece runs on a shared thread pool, which can't be shut down
+     * to cancel one download, so the piece is stopped individually
+     */
+
+    void requestStop() {
+        synchronized (runnerLock) {
+            stopRequested = true;
+            if (runner != null)
+                runner.interrupt();
+            /* The connection may be kept alive, so it must be closed explicitly */
+            if (connection != null)
+                connection.abort();
+        }
+    }
+
     @Override
     public PieceResult call() {
+        synchronized (runnerLock) {
+            runner = Thread.currentThread();
+        }
+
         StopRequest ret;
         try {
-            piece = repo.getPiece(pieceIndex, infoId);
+            synchronized (rangeLock) {
+                /* The hedge already has its range */
+                if (piece == null)
+                    piece = repo.getPiece(pieceIndex, infoId);
+            }
             if (piece == null) {
                 Log.w(TAG, "Piece " + pieceIndex + " is null, skipping");
                 return result;
@@ -117,17 +227,28 @@ class PieceThreadImpl extends Thread implements PieceThread {
                 return result;
             }
 
-            do {
-                piece.statusCode = STATUS_RUNNING;
-                piece.statusMsg = null;
-                writeToDatabase();
-
-                if ((ret = execDownload()) != null)
-                    handleRequest(ret);
-                else
-                    piece.statusCode = STATUS_SUCCESS;
+            piece.statusCode = STATUS_RUNNING;
+            piece.statusMsg = null;
+            writeToDatabase();
 
-            } while (piece != null && piece.statusCode == STATUS_WAITING_TO_RETRY);
+            long startBytes = piece.curBytes;
+            requestStartTime = lastReadTime = DateUtils.elapsedRealtime();
+            ret = execDownload();
+            lastReadTime = 0;
+            /* The connection can be aborted after the tail has been given to the hedge */
+            if (ret != null && !isRangeDownloaded()) {
+                handleRequest(ret);
+            } else {
+                piece.statusCode = STATUS_SUCCESS;
+                completed = true;
+            }
+            /*
+             * The piece makes one attempt, the download thread restarts it after
+             * a backoff while the other pieces keep transferring. The hedge isn't
+             * restarted, the raced piece still has its range
+             */
+            result.retry = piece.statusCode == STATUS_WAITING_TO_RETRY && !hedge;
+            result.madeProgress = piece.curBytes > startBytes;
 
         } catch (Throwable t) {
             Log.e(TAG, Log.getStackTraceString(t));
@@ -136,6 +257,12 @@ class PieceThreadImpl extends Thread implements PieceThread {
 
         } finally {
             finalizeThread();
+
+            synchronized (runnerLock) {
+                runner = null;
+                /* Don't pass the interrupt to the next task of the pool thread */
+                Thread.interrupted();
+            }
         }
 
         return result;
@@ -168,7 +295,9 @@ class PieceThreadImpl extends Thread implements PieceThread {
     }
 
     private StopRequest execDownload() {
-        lastBandwidthUpdateTime = DateUtils.elapsedRealtime();
+        StopRequest cancelRequest = checkCancel();
+        if (cancelRequest != null)
+            return cancelRequest;
 
         if (piece.size == 0)
             return new StopRequest(STATUS_SUCCESS, "Length is zero; skipping");
@@ -177,11 +306,16 @@ class PieceThreadImpl extends Thread implements PieceThread {
         if (info == null)
             return new StopRequest(STATUS_STOPPED, "Download deleted or missing");
 
-        startPos = info.pieceStartPos(piece);
-        endPos = info.pieceEndPos(piece);
+        host = HostProfiler.getHost(info.url);
+        synchronized (rangeLock) {
+            startPos = info.pieceStartPos(piece);
+            endPos = info.pieceEndPos(piece);
+            reservedPos = piece.curBytes;
+        }
 
         /* Reset and download from the beginning */
         if (!info.partialSupport) {
+            liveCounter.add(startPos - piece.curBytes);
             piece.curBytes = startPos;
             writeToDatabase();
         }
@@ -196,21 +330,38 @@ class PieceThreadImpl extends Thread implements PieceThread {
             return new StopRequest(STATUS_UNKNOWN_ERROR, "Unable to create SSLContext");
         }
         connection.setTimeout(pref.timeout());
+        connection.setKeepAlive(pref.connectionReuse());
 
         if (!Utils.checkConnectivity(pref, systemFacade))
             return new StopRequest(STATUS_WAITING_FOR_NETWORK);
+        NetworkInfo netInfo = systemFacade.getActiveNetworkInfo();
+        int networkType = (netInfo == null ? -1 : netInfo.getType());
+
+        /* The first piece continues reading the response to the metadata probe */
+        if (!hedge && startPos == 0 && piece.curBytes == 0) {
+            HttpURLConnection warmConn = WarmConnections.getInstance().take(infoId);
+            if (warmConn != null)
+                connection.setWarmConnection(warmConn);
+        }
 
         final StopRequest[] ret = new StopRequest[1];
-        boolean resuming = piece.curBytes != startPos;
+        /* The hedge must get the same content as the raced piece */
+        boolean resuming = piece.curBytes != startPos || hedge;
 
         connection.setListener(new HttpConnection.Listener() {
+            private long requestTime;
+
             @Override
             public void onConnectionCreated(HttpURLConnection conn) {
+                requestTime = DateUtils.elapsedRealtime();
                 ret[0] = addRequestHeaders(conn, resuming);
             }
 
             @Override
             public void onResponseHandle(HttpURLConnection conn, int code, String message) {
+                /* Already counted by the metadata probe if the connection is warm */
+                if (requestTime > 0)
+                    hostProfiler.onResponse(host, conn, code, DateUtils.elapsedRealtime() - requestTime);
                 switch (code) {
                     case HTTP_OK -> {
                         if (startPos != 0 || resuming) {
@@ -225,8 +376,14 @@ class PieceThreadImpl extends Thread implements PieceThread {
                             "Precondition failed");
                     case HTTP_UNAVAILABLE -> {
                         parseUnavailableHeaders(conn);
+                        result.throttled = true;
                         ret[0] = new StopRequest(HTTP_UNAVAILABLE, message);
                     }
+                    case HTTP_TOO_MANY_REQUESTS -> {
+                        parseUnavailableHeaders(conn);
+                        result.throttled = true;
+                        ret[0] = StopRequest.getUnhandledHttpError(code, message);
+                    }
                     case HTTP_INTERNAL_ERROR ->
                             ret[0] = new StopRequest(HTTP_INTERNAL_ERROR, message);
                     default -> ret[0] = StopRequest.getUnhandledHttpError(code, message);
@@ -240,6 +397,13 @@ class PieceThreadImpl extends Thread implements PieceThread {
 
             @Override
             public void onIOException(IOException e) {
+                /*
+                 * The connection is also aborted on stop and after the range has been given away.
+                 * A lost or changed network isn't the fault of the host
+                 */
+                if (!stopRequested && !isRangeDownloaded() &&
+                        Utils.isSameNetwork(pref, systemFacade, networkType))
+                    hostProfiler.onFailure(host);
                 if (e instanceof ProtocolException && e.getMessage() != null &&
                         e.getMessage().startsWith("Unexpected status line"))
                     ret[0] = new StopRequest(STATUS_UNHANDLED_HTTP_CODE, e);
@@ -255,7 +419,19 @@ class PieceThreadImpl extends Thread implements PieceThread {
                 ret[0] = new StopRequest(STATUS_TOO_MANY_REDIRECTS, "Too many redirects");
             }
         });
-        connection.run();
+        synchronized (runnerLock) {
+            if (stopRequested)
+                return new StopRequest(STATUS_STOPPED, "Download cancelled");
+            this.connection = connection;
+        }
+        try {
+            connection.run();
+
+        } finally {
+            synchronized (runnerLock) {
+                this.connection = null;
+            }
+        }
 
         return ret[0];
     }
@@ -286,14 +462,19 @@ class PieceThreadImpl extends Thread implements PieceThread {
         conn.setRequestProperty("Accept-Encoding", "identity");
         /*
          * Defeat connection reuse, since otherwise servers may continue
-         * streaming large downloads after cancelled.
+         * streaming large downloads after cancelled. In the reuse mode
+         * the connection is aborted on cancel instead
          */
-        conn.setRequestProperty("Connection", "close");
+        if (!pref.connectionReuse())
+            conn.setRequestProperty("Connection", "close");
         if (resuming && etag != null)
             conn.addRequestProperty("If-Match", etag);
-        String rangeRequest = "bytes=" + piece.curBytes + "-";
-        if (endPos >= 0)
-            rangeRequest += endPos;
+        String rangeRequest;
+        synchronized (rangeLock) {
+            rangeRequest = "bytes=" + piece.curBytes + "-";
+            if (endPos >= 0)
+                rangeRequest += endPos;
+        }
         conn.addRequestProperty("Range", rangeRequest);
 
         return null;
@@ -349,7 +530,7 @@ class PieceThreadImpl extends Thread implements PieceThread {
             }
 
             try {
-                Uri filePath = fs.getFileUri(info.dirPath, info.fileName);
+                Uri filePath = DownloadUtils.getDataFileUri(fs, info);
                 if (filePath == null)
                     throw new IOException("Write error: file not found");
                 fdWrapper = fs.getFD(filePath);
@@ -367,15 +548,20 @@ class PieceThreadImpl extends Thread implements PieceThread {
              * Start streaming data, periodically watch for pause/cancel
              * commands and checking disk space as needed.
              */
-            return transferData(in, fout, outFd);
+            if (pref.nioTransfer())
+                return transferData(in, fout.getChannel(), outFd);
+            else
+                return transferData(in, fout, outFd);
 
         } finally {
             fs.closeQuietly(in);
             try {
                 if (fout != null)
                     fout.flush();
-                if (outFd != null)
+                if (outFd != null) {
                     outFd.sync();
+                    appendJournal(piece.curBytes);
+                }
 
             } catch (IOException e) {
                 /* Ignore */
@@ -402,74 +588,480 @@ class PieceThreadImpl extends Thread implements PieceThread {
                 return ret;
 
             int byteCount;
-            int speedLimit = pref.speedLimit();
-            int speedLimitBytes = speedLimit * 1024;
-
             try {
-                int len = speedLimitBytes != 0 && speedLimitBytes < DEFAULT_BUFFER_SIZE ?
-                        speedLimitBytes :
-                        DEFAULT_BUFFER_SIZE;
-                byteCount = in.read(buffer, 0, len);
+                byteCount = in.read(buffer, 0, bucket.quantum(DEFAULT_BUFFER_SIZE));
 
             } catch (IOException e) {
                 return new StopRequest(STATUS_HTTP_DATA_ERROR,
                         "Failed reading response: " + e, e);
+            } finally {
+                onRead();
             }
             if (byteCount == -1)
                 break;
 
+            byteCount = claimRange(byteCount);
             try {
                 fout.write(buffer, 0, byteCount);
 
-                piece.curBytes += byteCount;
-                if ((ret = updateProgress(outFd, speedLimitBytes)) != null)
+                advance(byteCount);
+                if ((ret = updateProgress(outFd)) != null)
+                    return ret;
+
+            } catch (IOException e) {
+                return new StopRequest(STATUS_FILE_ERROR, e);
+            }
+
+            if (piece.size != -1 && piece.curBytes >= getEndPos() + 1)
+                break;
+
+            if ((ret = throttle(byteCount)) != null)
+                return ret;
+        }
+
+        return checkLength();
+    }
+
+    /*
+     * Same as above, but reads into pooled direct buffers that are written by the disk
+     * writer of the storage volume, so that a slow storage doesn't stall the socket.
+     * The buffer size follows the measured throughput, so that fast links need fewer syscalls
+     */
+
+    private StopRequest transferData(InputStream in, FileChannel out, FileDescriptor outFd) {
+        WriteRing ring = new WriteRing(DirectBufferPool.getInstance(), WRITE_RING_SIZE, piece.curBytes);
+        DiskWriter writer = DiskWriter.forVolume(fs.getVolumeId(outFd));
+        writeRing = ring;
+        StopRequest ret;
+        try {
+            ret = transferData(Channels.newChannel(in), out, outFd, ring, writer);
+
+        } finally {
+            /* The data in flight must reach the file before the progress is saved */
+            ring.awaitUninterruptibly();
+            if (ring.getError() != null) {
+                synchronized (rangeLock) {
+                    moveTo(ring.getWrittenPos());
+                }
+            }
+            writeRing = null;
+            ring.close();
+        }
+        if (ring.getError() != null)
+            return new StopRequest(STATUS_FILE_ERROR, ring.getError());
+
+        return (ret != null ? ret : checkLength());
+    }
+
+    /*
+     * Returns null if the end of the piece or stream is reached
+     */
+
+    private StopRequest transferData(ReadableByteChannel src, FileChannel out, FileDescriptor outFd,
+                                     WriteRing ring, DiskWriter writer) {
+        int bufSize = DirectBufferPool.MIN_BUFFER_SIZE;
+        long sampleStart = System.nanoTime();
+        long sampleBytes = 0;
+        while (true) {
+            StopRequest ret;
+            if ((ret = checkCancel()) != null)
+                return ret;
+            if (ring.getError() != null)
+                return new StopRequest(STATUS_FILE_ERROR, ring.getError());
+
+            ByteBuffer buf;
+            try {
+                buf = ring.take(bufSize);
+
+            } catch (InterruptedException e) {
+                return new StopRequest(STATUS_STOPPED, "Download cancelled");
+            }
+
+            int byteCount;
+            buf.limit(bucket.quantum(buf.capacity()));
+            try {
+                byteCount = src.read(buf);
+
+            } catch (IOException e) {
+                ring.recycle(buf);
+                return new StopRequest(STATUS_HTTP_DATA_ERROR,
+                        "Failed reading response: " + e, e);
+            } finally {
+                onRead();
+            }
+            if (byteCount == -1) {
+                ring.recycle(buf);
+                break;
+            }
+
+            byteCount = claimRange(byteCount);
+            if (byteCount > 0) {
+                buf.flip();
+                buf.limit(byteCount);
+                writer.submit(ring, out, buf, piece.curBytes);
+                advance(byteCount);
+            } else {
+                ring.recycle(buf);
+            }
+            try {
+                if ((ret = updateProgress(outFd)) != null)
                     return ret;
 
             } catch (IOException e) {
                 return new StopRequest(STATUS_FILE_ERROR, e);
             }
 
-            if (piece.size != -1 && piece.curBytes >= endPos + 1)
+            if (piece.size != -1 && piece.curBytes >= getEndPos() + 1)
                 break;
 
-            speedLimit(byteCount, speedLimitBytes);
+            if ((ret = throttle(byteCount)) != null)
+                return ret;
+
+            sampleBytes += byteCount;
+            long now = System.nanoTime();
+            if (now - sampleStart >= BUFFER_RESIZE_INTERVAL) {
+                long throughput = sampleBytes * NANOS_IN_SEC / (now - sampleStart);
+                bufSize = DirectBufferPool.sizeFor(throughput);
+                sampleStart = now;
+                sampleBytes = 0;
+            }
         }
 
-        /* Finished without error; verify length if known */
-        if (piece.size != -1 && piece.curBytes != endPos + 1) {
+        return null;
+    }
+
+    /* Finished without error; verify length if known */
+    private StopRequest checkLength() {
+        long end = getEndPos();
+        if (piece.size != -1 && piece.curBytes != end + 1) {
             return new StopRequest(STATUS_HTTP_DATA_ERROR,
                     "Piece length mismatch; found "
-                            + piece.curBytes + " instead of " + (endPos + 1));
+                            + piece.curBytes + " instead of " + (end + 1));
         }
 
         return null;
     }
 
-    private void speedLimit(long byteCount, int speedLimitBytes) {
-        bytesReadBandwidth += byteCount;
-        if (speedLimitBytes == 0) {
-            return;
+    /*
+     * Returns how many of the read bytes belong to the piece, because its tail
+     * can be cut off by the download thread at any time
+     */
+
+    private int claimRange(int byteCount) {
+        synchronized (rangeLock) {
+            if (piece.size != -1)
+                byteCount = (int) Math.min(byteCount, endPos + 1 - piece.curBytes);
+            reservedPos = piece.curBytes + byteCount;
+
+            return byteCount;
         }
-        if (bytesReadBandwidth >= speedLimitBytes) {
-            // Check the time from downloading to the limit bandwidth, this time is less than 1 second,
-            // and the data will not be read in the remaining time of this 1 second.
-            long offsetTime = DateUtils.elapsedRealtime() - lastBandwidthUpdateTime;
-            if (offsetTime < MILLIS_IN_SEC) {
-                try {
-                    if (offsetTime < 0) {
-                        offsetTime = 0;
-                    }
-                    Thread.sleep(MILLIS_IN_SEC - offsetTime);
-                } catch (InterruptedException e) {
-                    // Ignore
-                }
+    }
+
+    private long getEndPos() {
+        synchronized (rangeLock) {
+            return endPos;
+        }
+    }
+
+    private boolean isRangeDownloaded() {
+        synchronized (rangeLock) {
+            return piece.size >= 0 && piece.curBytes >= piece.startPos + piece.size;
+        }
+    }
+
+    private void advance(int byteCount) {
+        synchronized (rangeLock) {
+            moveTo(piece.curBytes + byteCount);
+        }
+    }
+
+    /*
+     * Must be called with the range lock held, so that the live progress
+     * doesn't count the bytes twice if the hedge wins at the same time
+     */
+
+    private void moveTo(long pos) {
+        if (!hedge)
+            liveCounter.add(pos - piece.curBytes);
+        piece.curBytes = pos;
+    }
+
+    /*
+     * Records the stall, if the read (successful or not) has taken too long
+     */
+
+    private void onRead() {
+        long now = DateUtils.elapsedRealtime();
+        long gap = now - lastReadTime;
+        if (gap >= STALL_TIMEOUT) {
+            synchronized (rangeLock) {
+                piece.numStalls++;
+                piece.stallTime += gap;
             }
-            lastBandwidthUpdateTime = DateUtils.elapsedRealtime();
-            bytesReadBandwidth = 0;
         }
+        lastReadTime = now;
+    }
+
+    private void appendJournal(long durablePos) throws IOException {
+        synchronized (rangeLock) {
+            if (journal != null && !hedge)
+                journal.append(pieceIndex, piece.startPos, durablePos);
+        }
+    }
+
+    boolean isCompleted() {
+        return completed;
+    }
+
+    /*
+     * Returns the number of bytes that haven't been read yet
+     * and can be given to another piece
+     */
+
+    long remainingBytes() {
+        synchronized (rangeLock) {
+            if (piece == null || piece.size <= 0 || piece.statusCode != STATUS_RUNNING)
+                return 0;
+
+            return piece.startPos + piece.size - Math.max(reservedPos, piece.curBytes);
+        }
+    }
+
+    /*
+     * Cuts off the second half of the remaining bytes and gives it to a new piece
+     * with the given index. The split is saved before the piece thread continues, so that
+     * the new boundaries survive a restart. Returns null if the piece isn't running
+     * or each half would be smaller than minSize
+     */
+
+    DownloadPiece splitTail(int newIndex, long minSize) {
+        synchronized (rangeLock) {
+            long remaining = remainingBytes();
+            if (remaining < minSize * 2)
+                return null;
+
+            return splitAt(piece.startPos + piece.size - remaining / 2, newIndex);
+        }
+    }
+
+    /*
+     * Gives all the remaining bytes to a new piece with the given index, so that
+     * the piece finishes at its read position and frees its connection.
+     * Returns null if the piece isn't running or the remaining part is smaller than minSize
+     */
+
+    DownloadPiece yieldTail(int newIndex, long minSize) {
+        DownloadPiece newPiece;
+        synchronized (rangeLock) {
+            long remaining = remainingBytes();
+            if (remaining <= 0 || remaining < minSize)
+                return null;
+
+            newPiece = splitAt(piece.startPos + piece.size - remaining, newIndex);
+            yielded = true;
+        }
+        abortIfDownloaded();
+
+        return newPiece;
+    }
+
+    /*
+     * Must be called with the range lock held
+     */
+
+    private DownloadPiece splitAt(long splitPos, int newIndex) {
+        long oldSize = piece.size;
+        long end = piece.startPos + oldSize - 1;
+        DownloadPiece newPiece = new DownloadPiece(infoId, newIndex, end - splitPos + 1, splitPos);
+        newPiece.startPos = splitPos;
+
+        piece.size = splitPos - piece.startPos;
+        try {
+            repo.splitPiece(piece, newPiece);
+
+        } catch (RuntimeException e) {
+            piece.size = oldSize;
+            throw e;
+        }
+        endPos = splitPos - 1;
+
+        return newPiece;
+    }
+
+    /*
+     * The connection may be stuck waiting for data that the piece doesn't need anymore
+     */
+
+    private void abortIfDownloaded() {
+        synchronized (runnerLock) {
+            if (connection != null && isRangeDownloaded())
+                connection.abort();
+        }
+    }
+
+    boolean isHedge() {
+        return hedge;
+    }
+
+    int getPieceIndex() {
+        return pieceIndex;
+    }
+
+    /*
+     * Returns the start of the piece and the end of its data that has reached
+     * the file, or null if the piece hasn't been loaded yet or has no size
+     */
+
+    long[] getWrittenRange() {
+        WriteRing ring = writeRing;
+        long writtenPos = (ring == null ? -1 : ring.getWrittenPos());
+
+        synchronized (rangeLock) {
+            if (piece == null || piece.size <= 0)
+                return null;
+            if (writtenPos < 0)
+                writtenPos = piece.curBytes;
+
+            return new long[]{piece.startPos, Math.min(writtenPos, piece.startPos + piece.size)};
+        }
+    }
+
+    boolean isYielded() {
+        return yielded;
     }
 
-    private StopRequest updateProgress(FileDescriptor outFd, int speedLimitBytes) throws IOException {
+    /*
+     * Returns the time when the last data was received, or 0
+     * if the piece isn't running a request at the moment
+     */
+
+    long getLastReadTime() {
+        return lastReadTime;
+    }
+
+    long getRequestStartTime() {
+        return requestStartTime;
+    }
+
+    long getRecentSpeed() {
+        return recentSpeed;
+    }
+
+    /*
+     * Returns the not yet read part of the piece, that can be raced by a hedge,
+     * or null if it's smaller than minSize. Unlike splitTail(), the piece keeps
+     * its range until the hedge overtakes it
+     */
+
+    DownloadPiece hedgeTail(long minSize) {
+        synchronized (rangeLock) {
+            long remaining = remainingBytes();
+            if (remaining < minSize)
+                return null;
+
+            long pos = piece.startPos + piece.size - remaining;
+            DownloadPiece tail = new DownloadPiece(infoId, -1, remaining, pos);
+            tail.startPos = pos;
+            piece.numHedges++;
+
+            return tail;
+        }
+    }
+
+    /*
+     * If the hedge has overtaken the piece, cuts off the piece at its read position
+     * and gives the rest to the hedge, that becomes a regular piece with the given index.
+     * The piece connection is aborted if it has nothing more to read, since it may be
+     * stuck waiting for data. Returns false if the hedge is still behind
+     */
+
+    boolean handOverTail(@NonNull PieceThreadImpl hedgeThread, int newIndex) {
+        synchronized (rangeLock) {
+            if (piece == null || piece.statusCode != STATUS_RUNNING || piece.size <= 0)
+                return false;
+
+            long splitPos = Math.max(reservedPos, piece.curBytes);
+            long end = piece.startPos + piece.size - 1;
+            if (splitPos > end)
+                return false;
+
+            long oldSize = piece.size;
+            piece.size = splitPos - piece.startPos;
+            boolean promoted;
+            try {
+                promoted = hedgeThread.promote(splitPos, end, newIndex, piece);
+
+            } catch (RuntimeException e) {
+                piece.size = oldSize;
+                throw e;
+            }
+            if (!promoted) {
+                piece.size = oldSize;
+                return false;
+            }
+            endPos = splitPos - 1;
+        }
+        abortIfDownloaded();
+
+        return true;
+    }
+
+    /*
+     * Must be called with the range lock of the raced piece held
+     */
+
+    private boolean promote(long splitPos, long end, int newIndex,
+                            @NonNull DownloadPiece racedPiece) {
+        synchronized (rangeLock) {
+            if (!hedge || piece.curBytes <= splitPos || piece.startPos + piece.size - 1 != end)
+                return false;
+            if (piece.statusCode != STATUS_RUNNING && piece.statusCode != STATUS_SUCCESS)
+                return false;
+
+            /* The data of a running hedge may not be on disk yet, it's saved with the next update */
+            long savedBytes = (piece.statusCode == STATUS_SUCCESS ? piece.curBytes : splitPos);
+            DownloadPiece newPiece = new DownloadPiece(infoId, newIndex, end - splitPos + 1, savedBytes);
+            newPiece.startPos = splitPos;
+            newPiece.statusCode = piece.statusCode;
+            newPiece.numStalls = piece.numStalls;
+            newPiece.stallTime = piece.stallTime;
+            repo.splitPiece(racedPiece, newPiece);
+
+            piece.index = newIndex;
+            piece.startPos = splitPos;
+            piece.size = end - splitPos + 1;
+            startPos = splitPos;
+            pieceIndex = newIndex;
+            result.setPieceIndex(newIndex);
+            progress = progressAggregator.register(infoId, newIndex);
+            hedge = false;
+            liveCounter.add(piece.curBytes - splitPos);
+
+            return true;
+        }
+    }
+
+    /*
+     * Wait until the bandwidth limiter allows the next read. The wait is
+     * short, because the piece reads data in small quanta
+     */
+
+    private StopRequest throttle(int byteCount) {
+        long delay = bucket.reserve(byteCount);
+        long deadline = System.nanoTime() + delay;
+        while (delay > 0) {
+            StopRequest ret;
+            if ((ret = checkCancel()) != null)
+                return ret;
+
+            LockSupport.parkNanos(delay);
+            delay = deadline - System.nanoTime();
+        }
+
+        return null;
+    }
+
+    private StopRequest updateProgress(FileDescriptor outFd) throws IOException {
         long now = DateUtils.elapsedRealtime();
         long currentBytes = piece.curBytes;
 
@@ -483,23 +1075,48 @@ class PieceThreadImpl extends Thread implements PieceThread {
 
             speedSampleStart = now;
             speedSampleBytes = currentBytes;
+            recentSpeed = piece.speed;
         }
 
         long bytesDelta = currentBytes - lastUpdateBytes;
         long timeDelta = now - lastUpdateTime;
-        int minProgressStep = speedLimitBytes != 0 && speedLimitBytes < DEFAULT_MIN_PROGRESS_STEP ?
-                speedLimitBytes :
+        long rate = bucket.getRate();
+        long minProgressStep = rate != 0 && rate < DEFAULT_MIN_PROGRESS_STEP ?
+                rate :
                 DEFAULT_MIN_PROGRESS_STEP;
         if (bytesDelta > minProgressStep && timeDelta > MIN_PROGRESS_TIME) {
+            if (writeRing != null) {
+                try {
+                    writeRing.await();
+
+                } catch (InterruptedException e) {
+                    return new StopRequest(STATUS_STOPPED, "Download cancelled");
+                }
+            }
             /*
              * sync() to ensure that current progress has been flushed to disk,
-             * so we can always resume based on latest database information
+             * so we can always resume based on latest database information.
+             * With other durability levels the progress in the database can be
+             * ahead of the disk, and it's rewound to the journal on resume
              */
-            outFd.sync();
+            if (durability == ResumeJournal.DURABILITY_STRICT) {
+                outFd.sync();
+
+            } else if (durability == ResumeJournal.DURABILITY_BALANCED &&
+                    now - lastSyncTime >= BALANCED_SYNC_INTERVAL) {
+                fs.syncData(outFd);
+                appendJournal(currentBytes);
+                lastSyncTime = now;
+            }
 
-            StopRequest ret;
-            if ((ret = writeToDatabaseOrCancel()) != null)
-                return ret;
+            /* The piece row was deleted or changed by someone else, check it */
+            if (progress.isLost()) {
+                StopRequest ret;
+                if ((ret = writeToDatabaseOrCancel()) != null)
+                    return ret;
+            } else if (!hedge) {
+                progress.post(currentBytes, piece.speed);
+            }
 
             lastUpdateBytes = currentBytes;
             lastUpdateTime = now;
@@ -513,17 +1130,30 @@ class PieceThreadImpl extends Thread implements PieceThread {
     }
 
     private StopRequest writeToDatabaseOrCancel() {
-        return repo.updatePiece(piece) > 0 ?
+        int updated;
+        progress.discard();
+        synchronized (rangeLock) {
+            if (hedge)
+                return null;
+            updated = repo.updatePiece(piece);
+        }
+
+        return updated > 0 ?
                 null :
                 new StopRequest(STATUS_STOPPED, "Download deleted or missing");
     }
 
     private void writeToDatabase() {
-        repo.updatePiece(piece);
+        progress.discard();
+        synchronized (rangeLock) {
+            /* The hedge is saved when it wins */
+            if (!hedge)
+                repo.updatePiece(piece);
+        }
     }
 
     private StopRequest checkCancel() {
-        return (Thread.currentThread().isInterrupted() ?
+        return (stopRequested || Thread.currentThread().isInterrupted() ?
                 new StopRequest(STATUS_STOPPED, "Download cancelled") :
                 null);
     }
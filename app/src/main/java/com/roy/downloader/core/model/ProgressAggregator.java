@@ -0,0 +1,171 @@
+package com.roy.downloader.core.model;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.roy.downloader.core.model.data.PieceProgress;
+import com.roy.downloader.core.storage.DataRepository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Collects the progress of running pieces of all downloads and saves it to the
+ * database in one transaction per interval, instead of a transaction (and an
+ * invalidation of the observers) per piece. Only the progress is saved this way;
+ * status changes of pieces are written immediately by the pieces themselves.
+ */
+
+public class ProgressAggregator {
+    @SuppressWarnings("unused")
+    private static final String TAG = ProgressAggregator.class.getSimpleName();
+
+    public static final int DEFAULT_FLUSH_INTERVAL = 5000; /* ms */
+    private static final long KEEP_ALIVE_TIME = 10; /* sec */
+
+    private final DataRepository repo;
+    private final ScheduledThreadPoolExecutor scheduler;
+    /* Guarded by this */
+    private HashMap<Entry, PieceProgress> pending = new HashMap<>();
+    private boolean flushScheduled;
+    private long flushInterval;
+
+    private final AtomicLong numFlushes = new AtomicLong();
+    private final AtomicLong numPosts = new AtomicLong();
+    private final AtomicLong numUpdates = new AtomicLong();
+
+    public static class Stats {
+        public final long numFlushes;
+        /* Progress updates posted by pieces, including the ones replaced by a newer update */
+        public final long numPosts;
+        /* Progress updates written to the database */
+        public final long numUpdates;
+
+        Stats(long numFlushes, long numPosts, long numUpdates) {
+            this.numFlushes = numFlushes;
+            this.numPosts = numPosts;
+            this.numUpdates = numUpdates;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "numFlushes=" + numFlushes +
+                    ", numPosts=" + numPosts +
+                    ", numUpdates=" + numUpdates +
+                    '}';
+        }
+    }
+
+    /*
+     * Progress slot of one running piece
+     */
+
+    class Entry {
+        final UUID infoId;
+        final int pieceIndex;
+        /* The piece wasn't found in the database or isn't running there anymore */
+        private volatile boolean lost;
+
+        Entry(UUID infoId, int pieceIndex) {
+            this.infoId = infoId;
+            this.pieceIndex = pieceIndex;
+        }
+
+        /*
+         * The progress must be on disk at this point
+         */
+
+        void post(long curBytes, long speed) {
+            numPosts.incrementAndGet();
+            synchronized (ProgressAggregator.this) {
+                pending.put(this, new PieceProgress(infoId, pieceIndex, curBytes, speed));
+                scheduleFlush();
+            }
+        }
+
+        /*
+         * Drops the pending progress, must be called before
+         * the piece is written to the database directly
+         */
+
+        void discard() {
+            synchronized (ProgressAggregator.this) {
+                pending.remove(this);
+            }
+            lost = false;
+        }
+
+        boolean isLost() {
+            return lost;
+        }
+    }
+
+    ProgressAggregator(@NonNull DataRepository repo, int flushInterval) {
+        this.repo = repo;
+        this.flushInterval = Math.max(flushInterval, 1);
+        scheduler = new ScheduledThreadPoolExecutor(1,
+                (r) -> new Thread(r, "ProgressAggregator"));
+        /* The thread is released when there are no running pieces */
+        scheduler.setKeepAliveTime(KEEP_ALIVE_TIME, TimeUnit.SECONDS);
+        scheduler.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    Entry register(@NonNull UUID infoId, int pieceIndex) {
+        return new Entry(infoId, pieceIndex);
+    }
+
+    public synchronized void setFlushInterval(int flushInterval) {
+        this.flushInterval = Math.max(flushInterval, 1);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled)
+            return;
+
+        flushScheduled = true;
+        scheduler.schedule(this::flush, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        HashMap<Entry, PieceProgress> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty())
+                return;
+            batch = pending;
+            pending = new HashMap<>();
+        }
+
+        List<PieceProgress> notUpdated;
+        try {
+            notUpdated = repo.updatePiecesProgress(new ArrayList<>(batch.values()));
+
+        } catch (Exception e) {
+            Log.e(TAG, "Unable to save progress: " + Log.getStackTraceString(e));
+            return;
+        }
+        numFlushes.incrementAndGet();
+        numUpdates.addAndGet(batch.size() - notUpdated.size());
+
+        if (notUpdated.isEmpty())
+            return;
+        for (Map.Entry<Entry, PieceProgress> item : batch.entrySet()) {
+            if (notUpdated.contains(item.getValue()))
+                item.getKey().lost = true;
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(numFlushes.get(), numPosts.get(), numUpdates.get());
+    }
+}
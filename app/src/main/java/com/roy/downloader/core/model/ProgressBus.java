@@ -0,0 +1,122 @@
+package com.roy.downloader.core.model;
+
+import androidx.annotation.NonNull;
+
+import com.roy.downloader.core.model.data.LiveProgress;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Flowable;
+
+/*
+ * Live progress of running downloads for the UI and notifications. Pieces add
+ * the transferred bytes to the atomic counter of the download, and the counters
+ * are sampled at a fixed interval only while somebody observes them, so the
+ * progress doesn't have to go through the database.
+ */
+
+public class ProgressBus {
+    @SuppressWarnings("unused")
+    private static final String TAG = ProgressBus.class.getSimpleName();
+
+    public static final long SAMPLE_INTERVAL = 250; /* ms */
+    /* Samples older than this time are ignored in the speed */
+    private static final long SPEED_WINDOW = 1000; /* ms */
+
+    private final ConcurrentHashMap<UUID, Counter> counters = new ConcurrentHashMap<>();
+    private final Flowable<Map<UUID, LiveProgress>> progress;
+
+    /*
+     * Downloaded bytes of one download, updated by its pieces,
+     * and the number of connections, updated by the download thread
+     */
+
+    static class Counter {
+        private final AtomicLong downloadedBytes;
+        private volatile int connections;
+        /* Accessed only by the sampler */
+        private long lastBytes = -1;
+        private long lastTime;
+        private long speed;
+
+        Counter(long downloadedBytes) {
+            this.downloadedBytes = new AtomicLong(downloadedBytes);
+        }
+
+        void add(long bytes) {
+            downloadedBytes.addAndGet(bytes);
+        }
+
+        long get() {
+            return downloadedBytes.get();
+        }
+
+        void setConnections(int connections) {
+            this.connections = connections;
+        }
+
+        private LiveProgress sample(UUID id, long now) {
+            long bytes = downloadedBytes.get();
+            long timeDelta = now - lastTime;
+            if (lastBytes < 0 || timeDelta > SPEED_WINDOW) {
+                speed = 0;
+            } else if (timeDelta > 0) {
+                long sampleSpeed = Math.max(bytes - lastBytes, 0) * 1000 / timeDelta;
+                speed = (speed == 0 ? sampleSpeed : (speed * 3 + sampleSpeed) / 4);
+            }
+            lastBytes = bytes;
+            lastTime = now;
+
+            return new LiveProgress(id, bytes, speed, connections);
+        }
+    }
+
+    ProgressBus() {
+        progress = Flowable.interval(0, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS)
+                .onBackpressureDrop()
+                .map((tick) -> sample())
+                .distinctUntilChanged()
+                /* One sampler for all observers; late observers get the last sample */
+                .replay(1)
+                .refCount();
+    }
+
+    @NonNull
+    Counter register(@NonNull UUID id, long downloadedBytes) {
+        Counter counter = new Counter(downloadedBytes);
+        counters.put(id, counter);
+
+        return counter;
+    }
+
+    void unregister(@NonNull UUID id, @NonNull Counter counter) {
+        counters.remove(id, counter);
+    }
+
+    /*
+     * Emits the progress of running downloads when it changes
+     */
+
+    @NonNull
+    public Flowable<Map<UUID, LiveProgress>> observe() {
+        return progress;
+    }
+
+    private Map<UUID, LiveProgress> sample() {
+        if (counters.isEmpty())
+            return Collections.emptyMap();
+
+        long now = System.nanoTime() / 1_000_000;
+        HashMap<UUID, LiveProgress> snapshot = new HashMap<>();
+        for (Map.Entry<UUID, Counter> entry : counters.entrySet())
+            snapshot.put(entry.getKey(), entry.getValue().sample(entry.getKey(), now));
+
+        return snapshot;
+    }
+}
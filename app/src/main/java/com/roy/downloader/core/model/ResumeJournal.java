@@ -0,0 +1,190 @@
+package com.roy.downloader.core.model;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.roy.downloader.core.model.data.StatusCode;
+import com.roy.downloader.core.model.data.entity.DownloadPiece;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only journal of the durable progress of download pieces.
+ * A record is appended only after the piece data up to the recorded
+ * position has been flushed to the storage, so the journal is never ahead
+ * of the file. The progress in the database can be ahead of the file when
+ * the durability level isn't strict; on resume it is rewound to the journal.
+ *
+ * The journal itself isn't synced: a lost or torn record (detected by CRC)
+ * only makes the piece re-download more data. Each record is
+ * piece index (int), piece start position (long), durable position (long)
+ * and CRC32 of these fields (int).
+ */
+
+class ResumeJournal implements Closeable {
+    @SuppressWarnings("unused")
+    private static final String TAG = ResumeJournal.class.getSimpleName();
+
+    /* Sync the file before each progress update, no journal */
+    static final int DURABILITY_STRICT = 0;
+    /* Sync the file and add journal records at long intervals */
+    static final int DURABILITY_BALANCED = 1;
+    /* Sync the file and add journal records only when the piece stops */
+    static final int DURABILITY_FAST = 2;
+
+    private static final String FILE_EXTENSION = ".journal";
+    private static final String TMP_FILE_EXTENSION = ".journal.tmp";
+    private static final int RECORD_SIZE = 24;
+
+    private final FileOutputStream out;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private ResumeJournal(FileOutputStream out) {
+        this.out = out;
+    }
+
+    @NonNull
+    static File getFile(@NonNull File dir, @NonNull UUID id) {
+        return new File(dir, id.toString() + FILE_EXTENSION);
+    }
+
+    /*
+     * Creates a new journal with the current durable progress of the pieces
+     */
+
+    @NonNull
+    static ResumeJournal create(@NonNull File dir, @NonNull UUID id,
+                                @NonNull List<DownloadPiece> pieces) throws IOException {
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException("Unable to create journal dir " + dir);
+
+        /* Replace the old journal at once, so that it's never lost on crash */
+        File tmpFile = new File(dir, id.toString() + TMP_FILE_EXTENSION);
+        FileOutputStream tmpOut = new FileOutputStream(tmpFile);
+        try {
+            ResumeJournal baseline = new ResumeJournal(tmpOut);
+            for (DownloadPiece piece : pieces)
+                baseline.append(piece.index, piece.startPos, piece.curBytes);
+            tmpOut.getFD().sync();
+
+        } finally {
+            tmpOut.close();
+        }
+        if (!tmpFile.renameTo(getFile(dir, id)))
+            throw new IOException("Unable to replace journal " + getFile(dir, id));
+
+        return new ResumeJournal(new FileOutputStream(getFile(dir, id), true));
+    }
+
+    static void delete(@NonNull File dir, @NonNull UUID id) {
+        File file = getFile(dir, id);
+        if (file.exists() && !file.delete())
+            Log.w(TAG, "Unable to delete journal " + file);
+    }
+
+    /*
+     * Rewinds the progress of the pieces to the last durable position from the
+     * journal, if the journal exists. Returns the pieces that have been changed
+     */
+
+    @NonNull
+    static List<DownloadPiece> reconcile(@NonNull File dir, @NonNull UUID id,
+                                         @NonNull List<DownloadPiece> pieces) {
+        ArrayList<DownloadPiece> changed = new ArrayList<>();
+        File file = getFile(dir, id);
+        if (!file.exists())
+            return changed;
+
+        HashMap<Integer, long[]> records = read(file);
+        for (DownloadPiece piece : pieces) {
+            /* The final state is written after the full sync */
+            if (piece.statusCode == StatusCode.STATUS_SUCCESS)
+                continue;
+
+            long durablePos = piece.startPos;
+            long[] record = records.get(piece.index);
+            /* A record of the piece with other boundaries is outdated */
+            if (record != null && record[0] == piece.startPos && record[1] >= piece.startPos &&
+                    (piece.size < 0 || record[1] <= piece.startPos + piece.size))
+                durablePos = record[1];
+
+            if (piece.curBytes > durablePos) {
+                Log.i(TAG, "Rewind piece " + piece.index + " of " + id +
+                        " from " + piece.curBytes + " to " + durablePos);
+                piece.curBytes = durablePos;
+                changed.add(piece);
+            }
+        }
+
+        return changed;
+    }
+
+    /*
+     * Returns the last valid record for each piece index: {startPos, durablePos}.
+     * Reading stops at the first torn or corrupted record
+     */
+
+    @NonNull
+    private static HashMap<Integer, long[]> read(@NonNull File file) {
+        HashMap<Integer, long[]> records = new HashMap<>();
+        CRC32 crc = new CRC32();
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            while (true) {
+                record.clear();
+                in.readFully(record.array());
+                crc.reset();
+                crc.update(record.array(), 0, RECORD_SIZE - 4);
+                int index = record.getInt();
+                long startPos = record.getLong();
+                long durablePos = record.getLong();
+                if ((int) crc.getValue() != record.getInt()) {
+                    Log.w(TAG, "Corrupted record in journal " + file);
+                    break;
+                }
+                records.put(index, new long[]{startPos, durablePos});
+            }
+
+        } catch (EOFException e) {
+            /* End of journal or torn record */
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read journal " + file + ": " + Log.getStackTraceString(e));
+        }
+
+        return records;
+    }
+
+    /*
+     * The piece data up to the durable position must be flushed at this point
+     */
+
+    synchronized void append(int pieceIndex, long startPos, long durablePos) throws IOException {
+        record.clear();
+        record.putInt(pieceIndex);
+        record.putLong(startPos);
+        record.putLong(durablePos);
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+        out.write(record.array(), 0, RECORD_SIZE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,212 @@
+package com.roy.downloader.core.model;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.roy.downloader.core.system.FileDescriptorWrapper;
+import com.roy.downloader.core.utils.DigestUtils;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Computes the checksum of the file while it's being downloaded. The pieces
+ * fill the file out of order, so the digest follows the contiguous prefix
+ * of the written data: the download thread reports how far the prefix
+ * reaches, and the hasher reads the new part back from the file right
+ * behind the pieces, while it's still in the page cache. When the last
+ * byte is written, only the tail of the file is left to hash.
+ */
+
+class StreamingHasher implements Closeable {
+    @SuppressWarnings("unused")
+    private static final String TAG = StreamingHasher.class.getSimpleName();
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int NUM_THREADS = 2;
+    private static final long KEEP_ALIVE_TIME = 30; /* sec */
+
+    /* Shared by all downloads; the threads are released after a timeout */
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        executor = new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                (r) -> new Thread(r, "StreamingHasher"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final FileDescriptorWrapper fdWrapper;
+    private final FileInputStream in;
+    private final FileChannel channel;
+    private final MessageDigest digest;
+    /* Guarded by this */
+    private long hashedPos;
+    private long targetPos;
+    /* Incremented on reset, so that the data read before it isn't hashed */
+    private int generation;
+    private boolean scheduled;
+    private boolean closed;
+    private IOException error;
+
+    private StreamingHasher(FileDescriptorWrapper fdWrapper, FileDescriptor fd, MessageDigest digest) {
+        this.fdWrapper = fdWrapper;
+        this.in = new FileInputStream(fd);
+        this.channel = in.getChannel();
+        this.digest = digest;
+    }
+
+    /*
+     * The hasher owns the wrapper and closes it. Returns null if the
+     * type of the checksum is unknown or the file can't be opened
+     */
+
+    static StreamingHasher open(@NonNull FileDescriptorWrapper fdWrapper, @NonNull String checksum) {
+        String algorithm = DigestUtils.getAlgorithm(checksum);
+        try {
+            FileDescriptor fd = null;
+            MessageDigest digest = null;
+            if (algorithm != null) {
+                digest = MessageDigest.getInstance(algorithm);
+                fd = fdWrapper.open("r");
+            }
+            if (fd != null)
+                return new StreamingHasher(fdWrapper, fd, digest);
+
+        } catch (NoSuchAlgorithmException | IOException e) {
+            Log.w(TAG, "Unable to open file: " + Log.getStackTraceString(e));
+        }
+        try {
+            fdWrapper.close();
+
+        } catch (IOException e) {
+            /* Ignore */
+        }
+
+        return null;
+    }
+
+    /*
+     * Returns the position up to which the data has been handed to the hasher
+     */
+
+    synchronized long getTargetPos() {
+        return targetPos;
+    }
+
+    /*
+     * Called when the contiguous written data reaches the given position
+     */
+
+    synchronized void advanceTo(long pos) {
+        if (closed || error != null || pos <= targetPos)
+            return;
+
+        targetPos = pos;
+        if (!scheduled) {
+            scheduled = true;
+            executor.execute(this::drain);
+        }
+    }
+
+    /*
+     * Starts over, e.g. if the download without the range support
+     * is restarted and the data is written from the beginning
+     */
+
+    synchronized void reset() {
+        targetPos = 0;
+        hashedPos = 0;
+        generation++;
+        digest.reset();
+    }
+
+    /*
+     * Hashes the rest of the data up to the given size and returns the checksum,
+     * or null if the file can't be read
+     */
+
+    String finish(long size) throws InterruptedException {
+        advanceTo(size);
+        synchronized (this) {
+            while (error == null && !closed && hashedPos < size)
+                wait();
+            if (error != null || closed || hashedPos != size)
+                return null;
+
+            return DigestUtils.digestToString(digest.digest());
+        }
+    }
+
+    private void drain() {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        while (true) {
+            long pos;
+            long end;
+            int gen;
+            synchronized (this) {
+                if (closed || error != null || hashedPos >= targetPos) {
+                    scheduled = false;
+                    notifyAll();
+                    return;
+                }
+                pos = hashedPos;
+                end = targetPos;
+                gen = generation;
+            }
+
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - pos));
+            int read;
+            try {
+                read = channel.read(buf, pos);
+                if (read < 0)
+                    throw new IOException("Unexpected end of file at " + pos);
+
+            } catch (IOException e) {
+                synchronized (this) {
+                    error = e;
+                    scheduled = false;
+                    notifyAll();
+                }
+                Log.w(TAG, "Unable to read file: " + Log.getStackTraceString(e));
+                return;
+            }
+
+            synchronized (this) {
+                /* Reset while reading */
+                if (generation != gen)
+                    continue;
+                digest.update(buf.array(), 0, read);
+                hashedPos += read;
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            in.close();
+            fdWrapper.close();
+
+        } catch (IOException e) {
+            /* Ignore */
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.roy.downloader.core.model;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * Bounded set of transfer buffers of one piece. The piece thread fills a free
+ * buffer and submits it to the disk writer, which returns the buffer after the
+ * write. The piece blocks only when all buffers are waiting to be written.
+ */
+
+class WriteRing {
+    @SuppressWarnings("unused")
+    private static final String TAG = WriteRing.class.getSimpleName();
+
+    private final DirectBufferPool bufferPool;
+    private final ArrayBlockingQueue<ByteBuffer> free;
+    /* Guarded by this */
+    private int inFlight;
+    /* The end of the data that has been written without errors */
+    private long writtenPos;
+    private IOException error;
+
+    WriteRing(@NonNull DirectBufferPool bufferPool, int numBuffers, long startPos) {
+        this.bufferPool = bufferPool;
+        this.free = new ArrayBlockingQueue<>(numBuffers);
+        this.writtenPos = startPos;
+        for (int i = 0; i < numBuffers; i++)
+            free.offer(bufferPool.acquire(DirectBufferPool.MIN_BUFFER_SIZE));
+    }
+
+    /*
+     * Returns a free buffer of the given size, waiting for
+     * the disk writer if all buffers are in use
+     */
+
+    @NonNull
+    ByteBuffer take(int size) throws InterruptedException {
+        ByteBuffer buf = free.take();
+        if (buf.capacity() != size) {
+            bufferPool.release(buf);
+            buf = bufferPool.acquire(size);
+        }
+        buf.clear();
+
+        return buf;
+    }
+
+    /*
+     * Returns the buffer that hasn't been submitted
+     */
+
+    void recycle(@NonNull ByteBuffer buf) {
+        free.offer(buf);
+    }
+
+    synchronized void onSubmitted() {
+        inFlight++;
+    }
+
+    /*
+     * Called by the disk writer; endPos is the end of the written data
+     * or -1 if the buffer wasn't written
+     */
+
+    synchronized void onWritten(@NonNull ByteBuffer buf, long endPos, IOException e) {
+        if (e != null && error == null)
+            error = e;
+        else if (endPos >= 0 && error == null)
+            writtenPos = endPos;
+        /* Return the buffer before waking up the waiters, so that close() gets it */
+        free.offer(buf);
+        inFlight--;
+        notifyAll();
+    }
+
+    /*
+     * Waits until all submitted buffers are written.
+     * Throws the first write error, if any
+     */
+
+    synchronized void await() throws InterruptedException, IOException {
+        while (inFlight > 0)
+            wait();
+        if (error != null)
+            throw error;
+    }
+
+    synchronized void awaitUninterruptibly() {
+        boolean interrupted = false;
+        while (inFlight > 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    synchronized IOException getError() {
+        return error;
+    }
+
+    synchronized long getWrittenPos() {
+        return writtenPos;
+    }
+
+    /*
+     * Returns the buffers to the pool, must be called after all writes are done
+     */
+
+    void close() {
+        ByteBuffer buf;
+        while ((buf = free.poll()) != null)
+            bufferPool.release(buf);
+    }
+}
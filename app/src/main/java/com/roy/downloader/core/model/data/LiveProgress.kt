@@ -0,0 +1,18 @@
+package com.roy.downloader.core.model.data
+
+import java.util.UUID
+
+/*
+ * Progress of a running download, sampled from the engine without the database.
+ * Speed is in bytes/s, connections is the number of running pieces
+ */
+data class LiveProgress(
+    @JvmField
+    val infoId: UUID,
+    @JvmField
+    val downloadedBytes: Long,
+    @JvmField
+    val speed: Long,
+    @JvmField
+    val connections: Int
+)
@@ -0,0 +1,17 @@
+package com.roy.downloader.core.model.data
+
+import java.util.UUID
+
+/*
+ * Snapshot of the piece progress, that is saved without the other piece fields
+ */
+class PieceProgress(
+    @JvmField
+    var infoId: UUID,
+    @JvmField
+    var pieceIndex: Int,
+    @JvmField
+    var curBytes: Long,
+    @JvmField
+    var speed: Long
+)
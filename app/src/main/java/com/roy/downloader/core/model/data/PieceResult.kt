@@ -8,4 +8,13 @@ class PieceResult(
 ) {
     @JvmField
     var retryAfter: Long = 0
+    /* The server throttled the piece (HTTP 503/429); the piece of the adaptive download can be restarted later */
+    @JvmField
+    var throttled: Boolean = false
+    /* The piece failed with a retryable error and waits to be restarted by the download */
+    @JvmField
+    var retry: Boolean = false
+    /* The piece has downloaded some data before it finished or failed */
+    @JvmField
+    var madeProgress: Boolean = false
 }
@@ -0,0 +1,55 @@
+package com.roy.downloader.core.model.data.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+
+import java.util.UUID;
+
+import static androidx.room.ForeignKey.CASCADE;
+
+/*
+ * The checksum of a fixed-size block of the downloaded file, computed when the
+ * whole block has been written. Unlike the pieces, the blocks don't depend on
+ * the splitting of the download, block N covers [N * BLOCK_SIZE, (N + 1) * BLOCK_SIZE).
+ * Used to find the damaged regions of the file after a crash or a failed
+ * checksum verification, so that only they are downloaded again.
+ */
+
+@Entity(primaryKeys = {"blockIndex", "infoId"},
+        indices = {@Index(value = "infoId")},
+        foreignKeys = @ForeignKey(
+                entity = DownloadInfo.class,
+                parentColumns = "id",
+                childColumns = "infoId",
+                onDelete = CASCADE))
+public class DownloadBlock {
+    public static final long BLOCK_SIZE = 1024 * 1024; /* 1 MiB */
+
+    public int blockIndex;
+    @NonNull
+    public UUID infoId;
+    /* CRC32 of the block data */
+    public long crc;
+
+    public DownloadBlock(@NonNull UUID infoId, int blockIndex, long crc) {
+        this.infoId = infoId;
+        this.blockIndex = blockIndex;
+        this.crc = crc;
+    }
+
+    public static long blockStartPos(int blockIndex) {
+        return blockIndex * BLOCK_SIZE;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "DownloadBlock{" +
+                "blockIndex=" + blockIndex +
+                ", infoId=" + infoId +
+                ", crc=" + crc +
+                '}';
+    }
+}
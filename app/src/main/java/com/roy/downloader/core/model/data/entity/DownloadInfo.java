@@ -29,6 +29,8 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
     public static final int MIN_PIECES = 1;
     /* Recommended max number of pieces */
     public static final int MAX_PIECES = 16;
+    /* The suffix of the file that holds the data until the download is finished */
+    public static final String PART_FILE_EXTENSION = ".part";
     /*
      * This download is visible but only shows in the notifications
      * while it's in progress
@@ -53,6 +55,12 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
      * a Retry-After response header with a parameter in delta-seconds
      */
     public static final int MAX_RETRY_AFTER = 24 * 60 * 60; /* 24 h */
+    /*
+     * Priorities are the weights of the download shares
+     * when the total speed limit is divided between downloads
+     */
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_HIGH = 2;
 
     @PrimaryKey
     @NonNull
@@ -90,6 +98,14 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
     /* MD5, SHA-256 */
     public String checksum;
     public boolean uncompressArchive = false;
+    public int priority = PRIORITY_NORMAL;
+    /* In KiB/s, 0 - without limit */
+    public int speedLimit = 0;
+    /*
+     * Start with a few connections and adjust their number to the throughput,
+     * the number of pieces is the maximum
+     */
+    public boolean adaptiveConnections = false;
 
     public DownloadInfo(@NonNull Uri dirPath,
                         @NonNull String url,
@@ -124,6 +140,9 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
         checksum = other.checksum;
         uncompressArchive = other.uncompressArchive;
         partialSupport = other.partialSupport;
+        priority = other.priority;
+        speedLimit = other.speedLimit;
+        adaptiveConnections = other.adaptiveConnections;
     }
 
     @Ignore
@@ -150,6 +169,9 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
         checksum = source.readString();
         uncompressArchive = source.readByte() > 0;
         partialSupport = source.readByte() > 0;
+        priority = source.readInt();
+        speedLimit = source.readInt();
+        adaptiveConnections = source.readByte() > 0;
     }
 
     @Override
@@ -181,6 +203,9 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
         dest.writeString(checksum);
         dest.writeByte((byte) (uncompressArchive ? 1 : 0));
         dest.writeByte((byte) (partialSupport ? 1 : 0));
+        dest.writeInt(priority);
+        dest.writeInt(speedLimit);
+        dest.writeByte((byte) (adaptiveConnections ? 1 : 0));
     }
 
     public static final Parcelable.Creator<DownloadInfo> CREATOR = new Parcelable.Creator<>() {
@@ -224,20 +249,24 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
         long curBytes = 0;
         for (int i = 0; i < numPieces; i++) {
             long pieceSize = (i == numPieces - 1 ? lastPieceSize : piecesSize);
-            pieces.add(new DownloadPiece(id, i, pieceSize, curBytes));
+            DownloadPiece piece = new DownloadPiece(id, i, pieceSize, curBytes);
+            piece.startPos = curBytes;
+            pieces.add(piece);
             curBytes += pieceSize;
         }
 
         return pieces;
     }
 
+    public String getPartFileName() {
+        return fileName + PART_FILE_EXTENSION;
+    }
+
     public long pieceStartPos(@NonNull DownloadPiece piece) {
         if (totalBytes <= 0)
             return 0;
 
-        long pieceSize = totalBytes / numPieces;
-
-        return piece.index * pieceSize;
+        return piece.startPos;
     }
 
     public long pieceEndPos(@NonNull DownloadPiece piece) {
@@ -289,7 +318,10 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
                 retryAfter == info.retryAfter &&
                 lastModify == info.lastModify &&
                 (checksum == null || checksum.equals(info.checksum)) &&
-                uncompressArchive == info.uncompressArchive;
+                uncompressArchive == info.uncompressArchive &&
+                priority == info.priority &&
+                speedLimit == info.speedLimit &&
+                adaptiveConnections == info.adaptiveConnections;
     }
 
     @NonNull
@@ -318,6 +350,9 @@ public class DownloadInfo implements Parcelable, Comparable<DownloadInfo> {
                 ", lastModify=" + lastModify +
                 ", checksum=" + checksum +
                 ", uncompressArchive=" + uncompressArchive +
+                ", priority=" + priority +
+                ", speedLimit=" + speedLimit +
+                ", adaptiveConnections=" + adaptiveConnections +
                 '}';
     }
 }
@@ -27,6 +27,11 @@ import static androidx.room.ForeignKey.CASCADE;
  * If the file size is unknown, only one download piece is created,
  * which has a negative size (-1)
  *
+ * While downloading, the not yet downloaded tail of a piece can be cut off
+ * and given to a new piece (see PieceThreadImpl.splitTail()), so the boundaries
+ * of the piece are stored explicitly (start position and size) and
+ * don't depend on the piece index.
+ *
  * If the server doesn't support HTTP Range Request (TODO: support RANG for FTP),
  * then the entire file is downloaded in only one piece.
  */
@@ -48,6 +53,14 @@ public class DownloadPiece implements Parcelable {
     public int statusCode = StatusCode.STATUS_PENDING;
     public String statusMsg;
     public long speed;
+    /* Position of the first byte of the piece in the file */
+    public long startPos;
+    /* How many times the connection delivered no data for too long */
+    public int numStalls;
+    /* Total time without data, ms */
+    public long stallTime;
+    /* How many times a second connection was raced against the piece */
+    public int numHedges;
 
     public DownloadPiece(@NonNull UUID infoId, int index, long size, long curBytes) {
         this.infoId = infoId;
@@ -64,6 +77,10 @@ public class DownloadPiece implements Parcelable {
         curBytes = source.readLong();
         statusCode = source.readInt();
         statusMsg = source.readString();
+        startPos = source.readLong();
+        numStalls = source.readInt();
+        stallTime = source.readLong();
+        numHedges = source.readInt();
     }
 
     @Override
@@ -79,6 +96,10 @@ public class DownloadPiece implements Parcelable {
         dest.writeLong(curBytes);
         dest.writeInt(statusCode);
         dest.writeString(statusMsg);
+        dest.writeLong(startPos);
+        dest.writeInt(numStalls);
+        dest.writeLong(stallTime);
+        dest.writeInt(numHedges);
     }
 
     public static final Creator<DownloadPiece> CREATOR =
@@ -116,8 +137,12 @@ public class DownloadPiece implements Parcelable {
                 index == piece.index &&
                 size == piece.size &&
                 curBytes == piece.curBytes &&
+                startPos == piece.startPos &&
                 speed == piece.speed &&
                 statusCode == piece.statusCode &&
+                numStalls == piece.numStalls &&
+                stallTime == piece.stallTime &&
+                numHedges == piece.numHedges &&
                 (statusMsg == null || statusMsg.equals(piece.statusMsg));
     }
 
@@ -132,6 +157,10 @@ public class DownloadPiece implements Parcelable {
                 ", statusCode=" + statusCode +
                 ", statusMsg='" + statusMsg + '\'' +
                 ", speed=" + speed +
+                ", startPos=" + startPos +
+                ", numStalls=" + numStalls +
+                ", stallTime=" + stallTime +
+                ", numHedges=" + numHedges +
                 '}';
     }
 }
@@ -0,0 +1,65 @@
+package com.roy.downloader.core.model.data.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+
+import java.util.UUID;
+
+import static androidx.room.ForeignKey.CASCADE;
+
+/*
+ * The hash of the downloaded file, computed by the given algorithm.
+ * The size and the modification time of the file at the moment of
+ * computing are stored along with it: if the file no longer matches
+ * them, it has been changed and the hash is computed again.
+ */
+
+@Entity(primaryKeys = {"infoId", "algorithm"},
+        indices = {@Index(value = "infoId")},
+        foreignKeys = @ForeignKey(
+                entity = DownloadInfo.class,
+                parentColumns = "id",
+                childColumns = "infoId",
+                onDelete = CASCADE))
+public class FileHash {
+    @NonNull
+    public UUID infoId;
+    /* See MessageDigest */
+    @NonNull
+    public String algorithm;
+    @NonNull
+    public String hash;
+    public long size;
+    public long lastModified;
+
+    public FileHash(@NonNull UUID infoId, @NonNull String algorithm,
+                    @NonNull String hash, long size, long lastModified) {
+        this.infoId = infoId;
+        this.algorithm = algorithm;
+        this.hash = hash;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /*
+     * Returns true if the hash was computed for the file with the given attributes
+     */
+
+    public boolean matches(long size, long lastModified) {
+        return this.size == size && this.lastModified == lastModified;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "FileHash{" +
+                "infoId=" + infoId +
+                ", algorithm='" + algorithm + '\'' +
+                ", hash='" + hash + '\'' +
+                ", size=" + size +
+                ", lastModified=" + lastModified +
+                '}';
+    }
+}
@@ -0,0 +1,83 @@
+package com.roy.downloader.core.model.data.entity;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.PrimaryKey;
+
+/*
+ * What the previous downloads have learned about the host: range support,
+ * the useful number of connections, typical speed and how often it fails
+ * or throttles requests. Used to plan new downloads from the same host.
+ */
+
+@Entity
+public class HostProfile {
+    public static final int RANGE_UNKNOWN = 0;
+    public static final int RANGE_SUPPORTED = 1;
+    public static final int RANGE_UNSUPPORTED = 2;
+
+    @PrimaryKey
+    @NonNull
+    public String host;
+    public int rangeSupport = RANGE_UNKNOWN;
+    /* The number of connections that the host serves without throttling, 0 if unknown */
+    public int maxConnections;
+    /* Average download speed, bytes/s */
+    public long throughput;
+    /* Average time to the first response byte, ms */
+    public long ttfb;
+    public int numRequests;
+    /* Recent shares of requests rejected with HTTP 503/429 and failed requests, 0..1 */
+    public float throttleRate;
+    public float failureRate;
+    /* The last Retry-After value sent by the host, s */
+    public long retryAfter;
+    public int consecutiveFailures;
+    /* The number of blocks in a row, without a successful request between them */
+    public int numBlocks;
+    /* Don't send requests to the host until this time, ms since epoch */
+    public long blockedUntil;
+    public long lastUpdate;
+
+    public HostProfile(@NonNull String host) {
+        this.host = host;
+    }
+
+    @Ignore
+    public HostProfile(@NonNull HostProfile other) {
+        host = other.host;
+        rangeSupport = other.rangeSupport;
+        maxConnections = other.maxConnections;
+        throughput = other.throughput;
+        ttfb = other.ttfb;
+        numRequests = other.numRequests;
+        throttleRate = other.throttleRate;
+        failureRate = other.failureRate;
+        retryAfter = other.retryAfter;
+        consecutiveFailures = other.consecutiveFailures;
+        numBlocks = other.numBlocks;
+        blockedUntil = other.blockedUntil;
+        lastUpdate = other.lastUpdate;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "HostProfile{" +
+                "host='" + host + '\'' +
+                ", rangeSupport=" + rangeSupport +
+                ", maxConnections=" + maxConnections +
+                ", throughput=" + throughput +
+                ", ttfb=" + ttfb +
+                ", numRequests=" + numRequests +
+                ", throttleRate=" + throttleRate +
+                ", failureRate=" + failureRate +
+                ", retryAfter=" + retryAfter +
+                ", consecutiveFailures=" + consecutiveFailures +
+                ", numBlocks=" + numBlocks +
+                ", blockedUntil=" + blockedUntil +
+                ", lastUpdate=" + lastUpdate +
+                '}';
+    }
+}
@@ -9,13 +9,19 @@ import androidx.room.Embedded;
 import androidx.room.Ignore;
 import androidx.room.Relation;
 
+import com.roy.downloader.core.model.data.LiveProgress;
+
 import java.util.List;
+import java.util.Objects;
 
 public class InfoAndPieces implements Parcelable {
     @Embedded
     public DownloadInfo info;
     @Relation(parentColumn = "id", entityColumn = "infoId")
     public List<DownloadPiece> pieces;
+    /* Progress from the engine, if the download is running. Not saved and not parcelled */
+    @Ignore
+    public LiveProgress liveProgress;
 
     /*
      * Do not use, only for DAO
@@ -23,6 +29,18 @@ public class InfoAndPieces implements Parcelable {
     public InfoAndPieces() {
     }
 
+    /*
+     * Shares the info and pieces with the other object, which may be
+     * emitted by Room to other observers, so they must not be changed
+     */
+
+    @Ignore
+    public InfoAndPieces(@NonNull InfoAndPieces other, @Nullable LiveProgress liveProgress) {
+        info = other.info;
+        pieces = other.pieces;
+        this.liveProgress = liveProgress;
+    }
+
     @Ignore
     public InfoAndPieces(Parcel source) {
         info = source.readParcelable(DownloadInfo.class.getClassLoader());
@@ -53,6 +71,44 @@ public class InfoAndPieces implements Parcelable {
                 }
             };
 
+    /*
+     * Prefer the live progress, because the pieces are saved with a delay
+     */
+
+    public long getDownloadedBytes() {
+        LiveProgress progress = liveProgress;
+        if (progress != null)
+            return progress.downloadedBytes;
+
+        long downloadedBytes = 0;
+        for (DownloadPiece piece : pieces)
+            downloadedBytes += info.getDownloadedBytes(piece);
+
+        return downloadedBytes;
+    }
+
+    /*
+     * Returns 0 if the download isn't running
+     */
+
+    public int getConnections() {
+        LiveProgress progress = liveProgress;
+
+        return (progress != null ? progress.connections : 0);
+    }
+
+    public long getSpeed() {
+        LiveProgress progress = liveProgress;
+        if (progress != null)
+            return progress.speed;
+
+        long speed = 0;
+        for (DownloadPiece piece : pieces)
+            speed += piece.speed;
+
+        return speed;
+    }
+
     @Override
     public int hashCode() {
         return info.id.hashCode();
@@ -70,7 +126,8 @@ public class InfoAndPieces implements Parcelable {
             return false;
 
         return info.equals(infoAndPieces.info) &&
-                pieces.containsAll(infoAndPieces.pieces);
+                pieces.containsAll(infoAndPieces.pieces) &&
+                Objects.equals(liveProgress, infoAndPieces.liveProgress);
     }
 
     @NonNull
@@ -51,10 +51,24 @@ interface SettingsRepository {
     fun customBatteryControlValue(`val`: Int)
     fun timeout(): Int
     fun timeout(`val`: Int)
+    fun progressFlushInterval(): Int
+    fun progressFlushInterval(`val`: Int)
+    fun durability(): Int
+    fun durability(`val`: Int)
     fun replaceDuplicateDownloads(): Boolean
     fun replaceDuplicateDownloads(`val`: Boolean)
     fun autoConnect(): Boolean
     fun autoConnect(`val`: Boolean)
+    fun connectionReuse(): Boolean
+    fun connectionReuse(`val`: Boolean)
+    fun nioTransfer(): Boolean
+    fun nioTransfer(`val`: Boolean)
+    fun hedgedRequests(): Boolean
+    fun hedgedRequests(`val`: Boolean)
+    fun blockVerification(): Boolean
+    fun blockVerification(`val`: Boolean)
+    fun stagingFiles(): Boolean
+    fun stagingFiles(`val`: Boolean)
     fun userAgent(): String?
     fun userAgent(`val`: String?)
 
@@ -63,6 +77,10 @@ interface SettingsRepository {
      */
     fun maxActiveDownloads(): Int
     fun maxActiveDownloads(`val`: Int)
+    fun maxConnections(): Int
+    fun maxConnections(`val`: Int)
+    fun maxConnectionsPerHost(): Int
+    fun maxConnectionsPerHost(`val`: Int)
     fun maxDownloadRetries(): Int
     fun maxDownloadRetries(`val`: Int)
     fun speedLimit(): Int
@@ -10,6 +10,9 @@ import androidx.core.content.ContextCompat;
 
 import com.roy.downloader.R;
 import com.roy.downloader.core.HttpConnection;
+import com.roy.downloader.core.model.HostConnectionLimiter;
+import com.roy.downloader.core.model.ProgressAggregator;
+import com.roy.downloader.core.model.data.entity.DownloadInfo;
 import com.roy.downloader.core.system.SystemFacadeHelper;
 import com.roy.downloader.core.utils.UserAgentUtils;
 import com.roy.downloader.core.utils.Utils;
@@ -50,8 +53,19 @@ public class SettingsRepositoryImpl implements SettingsRepository {
         static final boolean customBatteryControl = false;
         static final int customBatteryControlValue = Utils.getDefaultBatteryLowLevel();
         static final int timeout = HttpConnection.DEFAULT_TIMEOUT;
+        static final int progressFlushInterval = ProgressAggregator.DEFAULT_FLUSH_INTERVAL;
+
+        static int durability(@NonNull Context context) {
+            return Integer.parseInt(context.getString(R.string.pref_durability_balanced_value));
+        }
+
         static final boolean replaceDuplicateDownloads = true;
         static final boolean autoConnect = true;
+        static final boolean connectionReuse = true;
+        static final boolean nioTransfer = true;
+        static final boolean hedgedRequests = true;
+        static final boolean blockVerification = true;
+        static final boolean stagingFiles = true;
 
         static String userAgent(@NonNull Context context) {
             String userAgent = SystemFacadeHelper.getSystemFacade(context).getSystemUserAgent();
@@ -61,6 +75,8 @@ public class SettingsRepositoryImpl implements SettingsRepository {
 
         /* Limitation settings */
         static final int maxActiveDownloads = 3;
+        static final int maxConnections = DownloadInfo.MAX_PIECES;
+        static final int maxConnectionsPerHost = HostConnectionLimiter.DEFAULT_MAX_CONNECTIONS;
         static final int maxDownloadRetries = 5;
         // In Kib
         static final int speedLimit = 0;
@@ -354,6 +370,32 @@ public class SettingsRepositoryImpl implements SettingsRepository {
                 .apply();
     }
 
+    @Override
+    public int maxConnections() {
+        return pref.getInt(appContext.getString(R.string.pref_key_max_connections),
+                Default.maxConnections);
+    }
+
+    @Override
+    public void maxConnections(int val) {
+        pref.edit()
+                .putInt(appContext.getString(R.string.pref_key_max_connections), val)
+                .apply();
+    }
+
+    @Override
+    public int maxConnectionsPerHost() {
+        return pref.getInt(appContext.getString(R.string.pref_key_max_connections_per_host),
+                Default.maxConnectionsPerHost);
+    }
+
+    @Override
+    public void maxConnectionsPerHost(int val) {
+        pref.edit()
+                .putInt(appContext.getString(R.string.pref_key_max_connections_per_host), val)
+                .apply();
+    }
+
     @Override
     public int maxDownloadRetries() {
         return pref.getInt(appContext.getString(R.string.pref_key_max_download_retries),
@@ -393,6 +435,32 @@ public class SettingsRepositoryImpl implements SettingsRepository {
                 .apply();
     }
 
+    @Override
+    public int progressFlushInterval() {
+        return pref.getInt(appContext.getString(R.string.pref_key_progress_flush_interval),
+                Default.progressFlushInterval);
+    }
+
+    @Override
+    public void progressFlushInterval(int val) {
+        pref.edit()
+                .putInt(appContext.getString(R.string.pref_key_progress_flush_interval), val)
+                .apply();
+    }
+
+    @Override
+    public int durability() {
+        return pref.getInt(appContext.getString(R.string.pref_key_durability),
+                Default.durability(appContext));
+    }
+
+    @Override
+    public void durability(int val) {
+        pref.edit()
+                .putInt(appContext.getString(R.string.pref_key_durability), val)
+                .apply();
+    }
+
     @Override
     public boolean replaceDuplicateDownloads() {
         return pref.getBoolean(appContext.getString(R.string.pref_key_replace_duplicate_downloads),
@@ -419,6 +487,71 @@ public class SettingsRepositoryImpl implements SettingsRepository {
                 .apply();
     }
 
+    @Override
+    public boolean connectionReuse() {
+        return pref.getBoolean(appContext.getString(R.string.pref_key_connection_reuse),
+                Default.connectionReuse);
+    }
+
+    @Override
+    public void connectionReuse(boolean val) {
+        pref.edit()
+                .putBoolean(appContext.getString(R.string.pref_key_connection_reuse), val)
+                .apply();
+    }
+
+    @Override
+    public boolean nioTransfer() {
+        return pref.getBoolean(appContext.getString(R.string.pref_key_nio_transfer),
+                Default.nioTransfer);
+    }
+
+    @Override
+    public void nioTransfer(boolean val) {
+        pref.edit()
+                .putBoolean(appContext.getString(R.string.pref_key_nio_transfer), val)
+                .apply();
+    }
+
+    @Override
+    public boolean hedgedRequests() {
+        return pref.getBoolean(appContext.getString(R.string.pref_key_hedged_requests),
+                Default.hedgedRequests);
+    }
+
+    @Override
+    public void hedgedRequests(boolean val) {
+        pref.edit()
+                .putBoolean(appContext.getString(R.string.pref_key_hedged_requests), val)
+                .apply();
+    }
+
+    @Override
+    public boolean blockVerification() {
+        return pref.getBoolean(appContext.getString(R.string.pref_key_block_verification),
+                Default.blockVerification);
+    }
+
+    @Override
+    public void blockVerification(boolean val) {
+        pref.edit()
+                .putBoolean(appContext.getString(R.string.pref_key_block_verification), val)
+                .apply();
+    }
+
+    @Override
+    public boolean stagingFiles() {
+        return pref.getBoolean(appContext.getString(R.string.pref_key_staging_files),
+                Default.stagingFiles);
+    }
+
+    @Override
+    public void stagingFiles(boolean val) {
+        pref.edit()
+                .putBoolean(appContext.getString(R.string.pref_key_staging_files), val)
+                .apply();
+    }
+
     @Override
     public String userAgent() {
         return pref.getString(appContext.getString(R.string.pref_key_user_agent),
@@ -32,13 +32,17 @@ import androidx.room.TypeConverters;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.roy.downloader.core.model.data.entity.BrowserBookmark;
+import com.roy.downloader.core.model.data.entity.DownloadBlock;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
 import com.roy.downloader.core.model.data.entity.DownloadPiece;
+import com.roy.downloader.core.model.data.entity.FileHash;
 import com.roy.downloader.core.model.data.entity.Header;
+import com.roy.downloader.core.model.data.entity.HostProfile;
 import com.roy.downloader.core.model.data.entity.UserAgent;
 import com.roy.downloader.core.storage.converter.UUIDConverter;
 import com.roy.downloader.core.storage.dao.BrowserBookmarksDao;
 import com.roy.downloader.core.storage.dao.DownloadDao;
+import com.roy.downloader.core.storage.dao.HostProfileDao;
 import com.roy.downloader.core.storage.dao.UserAgentDao;
 import com.roy.downloader.core.system.SystemFacade;
 import com.roy.downloader.core.system.SystemFacadeHelper;
@@ -51,8 +55,11 @@ import io.reactivex.schedulers.Schedulers;
         DownloadPiece.class,
         Header.class,
         UserAgent.class,
-        BrowserBookmark.class},
-        version = 6)
+        BrowserBookmark.class,
+        HostProfile.class,
+        DownloadBlock.class,
+        FileHash.class},
+        version = 14)
 @TypeConverters({UUIDConverter.class})
 public abstract class AppDatabase extends RoomDatabase
 {
@@ -66,6 +73,8 @@ public abstract class AppDatabase extends RoomDatabase
 
     public abstract BrowserBookmarksDao browserBookmarksDao();
 
+    public abstract HostProfileDao hostProfileDao();
+
     private final MutableLiveData<Boolean> isDatabaseCreated = new MutableLiveData<>();
 
     public static AppDatabase getInstance(Context context)
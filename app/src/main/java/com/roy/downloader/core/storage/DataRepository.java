@@ -2,9 +2,13 @@ package com.roy.downloader.core.storage;
 
 import androidx.lifecycle.LiveData;
 
+import com.roy.downloader.core.model.data.PieceProgress;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
+import com.roy.downloader.core.model.data.entity.DownloadBlock;
 import com.roy.downloader.core.model.data.entity.DownloadPiece;
+import com.roy.downloader.core.model.data.entity.FileHash;
 import com.roy.downloader.core.model.data.entity.Header;
+import com.roy.downloader.core.model.data.entity.HostProfile;
 import com.roy.downloader.core.model.data.entity.InfoAndPieces;
 import com.roy.downloader.core.model.data.entity.UserAgent;
 
@@ -39,12 +43,28 @@ public interface DataRepository {
 
     int updatePiece(DownloadPiece piece);
 
+    void splitPiece(DownloadPiece piece, DownloadPiece newPiece);
+
+    List<PieceProgress> updatePiecesProgress(List<PieceProgress> progressList);
+
     List<DownloadPiece> getPiecesById(UUID infoId);
 
     List<DownloadPiece> getPiecesByIdSorted(UUID infoId);
 
     DownloadPiece getPiece(int index, UUID infoId);
 
+    void replacePieces(UUID infoId, List<DownloadPiece> pieces);
+
+    void addBlock(DownloadBlock block);
+
+    List<DownloadBlock> getBlocksById(UUID infoId);
+
+    void deleteBlocks(UUID infoId, List<Integer> indexes);
+
+    void addFileHash(FileHash hash);
+
+    FileHash getFileHash(UUID infoId, String algorithm);
+
     List<Header> getHeadersById(UUID infoId);
 
     void addHeader(Header header);
@@ -54,4 +74,10 @@ public interface DataRepository {
     void deleteUserAgent(UserAgent agent);
 
     LiveData<List<UserAgent>> observeUserAgents();
+
+    HostProfile getHostProfile(String host);
+
+    void saveHostProfile(HostProfile profile);
+
+    void deleteHostProfilesOlderThan(long time);
 }
@@ -8,13 +8,18 @@ import androidx.annotation.NonNull;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MediatorLiveData;
 
+import com.roy.downloader.core.model.data.PieceProgress;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
+import com.roy.downloader.core.model.data.entity.DownloadBlock;
 import com.roy.downloader.core.model.data.entity.DownloadPiece;
+import com.roy.downloader.core.model.data.entity.FileHash;
 import com.roy.downloader.core.model.data.entity.Header;
+import com.roy.downloader.core.model.data.entity.HostProfile;
 import com.roy.downloader.core.model.data.entity.InfoAndPieces;
 import com.roy.downloader.core.model.data.entity.UserAgent;
 import com.roy.downloader.core.system.FileSystemFacade;
 import com.roy.downloader.core.system.SystemFacadeHelper;
+import com.roy.downloader.core.utils.DownloadUtils;
 
 import java.io.FileNotFoundException;
 import java.util.List;
@@ -76,7 +81,7 @@ public class DataRepositoryImpl implements DataRepository {
 
         if (withFile) {
             try {
-                Uri filePath = fs.getFileUri(info.dirPath, info.fileName);
+                Uri filePath = DownloadUtils.getDataFileUri(fs, info);
                 if (filePath == null)
                     return;
                 fs.deleteFile(filePath);
@@ -122,6 +127,16 @@ public class DataRepositoryImpl implements DataRepository {
         return db.downloadDao().updatePiece(piece);
     }
 
+    @Override
+    public void splitPiece(DownloadPiece piece, DownloadPiece newPiece) {
+        db.downloadDao().splitPiece(piece, newPiece);
+    }
+
+    @Override
+    public List<PieceProgress> updatePiecesProgress(List<PieceProgress> progressList) {
+        return db.downloadDao().updatePiecesProgress(progressList);
+    }
+
     @Override
     public List<DownloadPiece> getPiecesById(UUID infoId) {
         return db.downloadDao().getPiecesById(infoId);
@@ -141,6 +156,36 @@ public class DataRepositoryImpl implements DataRepository {
         return db.downloadDao().getPiece(index, infoId);
     }
 
+    @Override
+    public void replacePieces(UUID infoId, List<DownloadPiece> pieces) {
+        db.downloadDao().replacePieces(infoId, pieces);
+    }
+
+    @Override
+    public void addBlock(DownloadBlock block) {
+        db.downloadDao().addBlock(block);
+    }
+
+    @Override
+    public List<DownloadBlock> getBlocksById(UUID infoId) {
+        return db.downloadDao().getBlocksById(infoId);
+    }
+
+    @Override
+    public void deleteBlocks(UUID infoId, List<Integer> indexes) {
+        db.downloadDao().deleteBlocks(infoId, indexes);
+    }
+
+    @Override
+    public void addFileHash(FileHash hash) {
+        db.downloadDao().addFileHash(hash);
+    }
+
+    @Override
+    public FileHash getFileHash(UUID infoId, String algorithm) {
+        return db.downloadDao().getFileHash(infoId, algorithm);
+    }
+
     @Override
     public List<Header> getHeadersById(UUID infoId) {
         return db.downloadDao().getHeadersById(infoId);
@@ -165,4 +210,19 @@ public class DataRepositoryImpl implements DataRepository {
     public LiveData<List<UserAgent>> observeUserAgents() {
         return db.userAgentDao().observeAll();
     }
-}
\ No newline at end of file
+
+    @Override
+    public HostProfile getHostProfile(String host) {
+        return db.hostProfileDao().getByHost(host);
+    }
+
+    @Override
+    public void saveHostProfile(HostProfile profile) {
+        db.hostProfileDao().add(profile);
+    }
+
+    @Override
+    public void deleteHostProfilesOlderThan(long time) {
+        db.hostProfileDao().deleteOlderThan(time);
+    }
+}
@@ -12,6 +12,14 @@ class DatabaseMigration {
                 MIGRATION_3_4,
                 MIGRATION_4_5,
                 MIGRATION_5_6,
+                MIGRATION_6_7,
+                MIGRATION_7_8,
+                MIGRATION_8_9,
+                MIGRATION_9_10,
+                MIGRATION_10_11,
+                MIGRATION_11_12,
+                MIGRATION_12_13,
+                MIGRATION_13_14,
         };
     }
 
@@ -61,4 +69,69 @@ class DatabaseMigration {
             database.execSQL("ALTER TABLE `DownloadInfo` ADD COLUMN `uncompressArchive` INTEGER NOT NULL DEFAULT 0");
         }
     };
+
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            /* Store piece boundaries explicitly, because pieces can be split during downloading */
+            database.execSQL("ALTER TABLE `DownloadPiece` ADD COLUMN `startPos` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("UPDATE `DownloadPiece` SET `startPos` = `pieceIndex` * " +
+                    "(SELECT CASE WHEN `totalBytes` > 0 THEN `totalBytes` / `numPieces` ELSE 0 END " +
+                    "FROM `DownloadInfo` WHERE `DownloadInfo`.`id` = `DownloadPiece`.`infoId`)");
+        }
+    };
+
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `DownloadInfo` ADD COLUMN `priority` INTEGER NOT NULL DEFAULT 1");
+            database.execSQL("ALTER TABLE `DownloadInfo` ADD COLUMN `speedLimit` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `DownloadPiece` ADD COLUMN `numStalls` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `DownloadPiece` ADD COLUMN `stallTime` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `DownloadPiece` ADD COLUMN `numHedges` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `DownloadInfo` ADD COLUMN `adaptiveConnections` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `HostProfile` (`host` TEXT NOT NULL, `rangeSupport` INTEGER NOT NULL, `maxConnections` INTEGER NOT NULL, `throughput` INTEGER NOT NULL, `ttfb` INTEGER NOT NULL, `numRequests` INTEGER NOT NULL, `throttleRate` REAL NOT NULL, `failureRate` REAL NOT NULL, `retryAfter` INTEGER NOT NULL, `consecutiveFailures` INTEGER NOT NULL, `blockedUntil` INTEGER NOT NULL, `lastUpdate` INTEGER NOT NULL, PRIMARY KEY(`host`))");
+        }
+    };
+
+    static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `DownloadBlock` (`blockIndex` INTEGER NOT NULL, `infoId` TEXT NOT NULL, `crc` INTEGER NOT NULL, PRIMARY KEY(`blockIndex`, `infoId`), FOREIGN KEY(`infoId`) REFERENCES `DownloadInfo`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_DownloadBlock_infoId` ON `DownloadBlock` (`infoId`)");
+        }
+    };
+
+    static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `FileHash` (`infoId` TEXT NOT NULL, `algorithm` TEXT NOT NULL, `hash` TEXT NOT NULL, `size` INTEGER NOT NULL, `lastModified` INTEGER NOT NULL, PRIMARY KEY(`infoId`, `algorithm`), FOREIGN KEY(`infoId`) REFERENCES `DownloadInfo`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_FileHash_infoId` ON `FileHash` (`infoId`)");
+        }
+    };
+
+    static final Migration MIGRATION_13_14 = new Migration(13, 14) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `HostProfile` ADD COLUMN `numBlocks` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
 }
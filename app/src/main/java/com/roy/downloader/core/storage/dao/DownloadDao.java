@@ -28,11 +28,17 @@ import androidx.room.Query;
 import androidx.room.Transaction;
 import androidx.room.Update;
 
+import com.roy.downloader.core.model.data.PieceProgress;
+import com.roy.downloader.core.model.data.StatusCode;
+import com.roy.downloader.core.model.data.entity.DownloadBlock;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
 import com.roy.downloader.core.model.data.entity.DownloadPiece;
+import com.roy.downloader.core.model.data.entity.FileHash;
 import com.roy.downloader.core.model.data.entity.Header;
 import com.roy.downloader.core.model.data.entity.InfoAndPieces;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -49,6 +55,15 @@ public abstract class DownloadDao {
     private static final String QUERY_GET_PIECES_BY_ID_SORTED = "SELECT * FROM DownloadPiece WHERE infoId = :infoId ORDER BY statusCode ASC";
     private static final String QUERY_GET_PIECE = "SELECT * FROM DownloadPiece WHERE pieceIndex = :index AND infoId = :infoId";
     private static final String QUERY_GET_HEADERS = "SELECT * FROM download_info_headers WHERE infoId = :infoId";
+    private static final String QUERY_GET_BLOCKS_BY_ID = "SELECT * FROM DownloadBlock WHERE infoId = :infoId";
+    private static final String QUERY_DELETE_BLOCKS = "DELETE FROM DownloadBlock WHERE infoId = :infoId";
+    private static final String QUERY_DELETE_BLOCKS_BY_INDEX = "DELETE FROM DownloadBlock WHERE infoId = :infoId AND blockIndex IN (:indexes)";
+    private static final String QUERY_GET_FILE_HASH = "SELECT * FROM FileHash WHERE infoId = :infoId AND algorithm = :algorithm";
+    private static final String QUERY_DELETE_FILE_HASHES = "DELETE FROM FileHash WHERE infoId = :infoId";
+    private static final String QUERY_UPDATE_PIECE_SIZE = "UPDATE DownloadPiece SET size = :size WHERE pieceIndex = :index AND infoId = :infoId";
+    /* Only running pieces, so that a late snapshot doesn't overwrite the final state */
+    private static final String QUERY_UPDATE_PIECE_PROGRESS = "UPDATE DownloadPiece SET curBytes = :curBytes, speed = :speed " +
+            "WHERE pieceIndex = :index AND infoId = :infoId AND statusCode = " + StatusCode.STATUS_RUNNING;
 
     @Transaction
     public void addInfo(DownloadInfo info) {
@@ -83,6 +98,9 @@ public abstract class DownloadDao {
         updateInfo(info);
         deletePieces(info.id);
         addPieces(info.makePieces());
+        /* The file is downloaded anew */
+        deleteBlocks(info.id);
+        deleteFileHashes(info.id);
     }
 
     @Query(QUERY_GET_ALL_INFO)
@@ -115,6 +133,51 @@ public abstract class DownloadDao {
     @Update
     public abstract int updatePiece(DownloadPiece piece);
 
+    /*
+     * Shrinks the piece and adds the new piece, that got its cut off tail
+     */
+
+    @Transaction
+    public void splitPiece(DownloadPiece piece, DownloadPiece newPiece) {
+        /* The progress is saved separately, when the data is on disk */
+        updatePieceSize(piece.index, piece.infoId, piece.size);
+        addPieces(Collections.singletonList(newPiece));
+    }
+
+    /*
+     * Replaces all pieces of the download, e.g. when its damaged
+     * regions are cut out into new pieces to be downloaded again
+     */
+
+    @Transaction
+    public void replacePieces(UUID infoId, List<DownloadPiece> pieces) {
+        deletePieces(infoId);
+        addPieces(pieces);
+    }
+
+    @Query(QUERY_UPDATE_PIECE_SIZE)
+    public abstract int updatePieceSize(int index, UUID infoId, long size);
+
+    @Query(QUERY_UPDATE_PIECE_PROGRESS)
+    public abstract int updatePieceProgress(int index, UUID infoId, long curBytes, long speed);
+
+    /*
+     * Saves the progress of several pieces in one transaction.
+     * Returns the progress of the pieces that weren't updated
+     */
+
+    @Transaction
+    public List<PieceProgress> updatePiecesProgress(List<PieceProgress> progressList) {
+        ArrayList<PieceProgress> notUpdated = new ArrayList<>();
+        for (PieceProgress progress : progressList) {
+            if (updatePieceProgress(progress.pieceIndex, progress.infoId,
+                    progress.curBytes, progress.speed) == 0)
+                notUpdated.add(progress);
+        }
+
+        return notUpdated;
+    }
+
     @Query(QUERY_GET_PIECES_BY_ID)
     public abstract List<DownloadPiece> getPiecesById(UUID infoId);
 
@@ -133,6 +196,27 @@ public abstract class DownloadDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     public abstract void addHeader(Header header);
 
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void addBlock(DownloadBlock block);
+
+    @Query(QUERY_GET_BLOCKS_BY_ID)
+    public abstract List<DownloadBlock> getBlocksById(UUID infoId);
+
+    @Query(QUERY_DELETE_BLOCKS)
+    public abstract void deleteBlocks(UUID infoId);
+
+    @Query(QUERY_DELETE_BLOCKS_BY_INDEX)
+    public abstract void deleteBlocks(UUID infoId, List<Integer> indexes);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void addFileHash(FileHash hash);
+
+    @Query(QUERY_GET_FILE_HASH)
+    public abstract FileHash getFileHash(UUID infoId, String algorithm);
+
+    @Query(QUERY_DELETE_FILE_HASHES)
+    public abstract void deleteFileHashes(UUID infoId);
+
     @Insert
     public abstract void add_info(DownloadInfo info);
 }
\ No newline at end of file
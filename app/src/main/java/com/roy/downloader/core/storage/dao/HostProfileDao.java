@@ -0,0 +1,20 @@
+package com.roy.downloader.core.storage.dao;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.roy.downloader.core.model.data.entity.HostProfile;
+
+@Dao
+public interface HostProfileDao {
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void add(HostProfile profile);
+
+    @Query("SELECT * FROM HostProfile WHERE host = :host")
+    HostProfile getByHost(String host);
+
+    @Query("DELETE FROM HostProfile WHERE lastUpdate < :time")
+    void deleteOlderThan(long time);
+}
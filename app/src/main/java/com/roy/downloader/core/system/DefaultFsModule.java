@@ -65,6 +65,18 @@ class DefaultFsModule implements FsModule {
         return new File(filePath.getPath()).delete();
     }
 
+    @Override
+    public Uri rename(@NonNull Uri srcDir, @NonNull String srcFileName,
+                      @NonNull Uri destDir, @NonNull String destFileName) {
+        var src = new File(srcDir.getPath(), srcFileName);
+        var destDirFile = new File(destDir.getPath());
+        var dest = new File(destDirFile, destFileName);
+        destDirFile.mkdirs();
+
+        /* Fails if the directories are on different file systems */
+        return src.renameTo(dest) ? Uri.fromFile(dest) : null;
+    }
+
     @Override
     public boolean exists(@NonNull Uri filePath) {
         return new File(filePath.getPath()).exists();
@@ -98,6 +110,11 @@ class DefaultFsModule implements FsModule {
         return new File(filePath.getPath()).length();
     }
 
+    @Override
+    public long getLastModified(@NonNull Uri filePath) {
+        return new File(filePath.getPath()).lastModified();
+    }
+
     @Override
     public void takePermissions(@NonNull Uri path) {
         // None
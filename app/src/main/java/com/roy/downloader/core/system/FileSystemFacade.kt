@@ -12,20 +12,58 @@ import java.io.InputStream
 import java.io.OutputStream
 
 interface FileSystemFacade {
+    /*
+     * How the file was moved: renamed within the same file system,
+     * or copied to the destination and deleted
+     */
+    enum class MoveMethod {
+        RENAME, COPY
+    }
+
     @Throws(IOException::class)
     fun seek(fout: FileOutputStream, offset: Long)
 
     @Throws(IOException::class)
     fun allocate(fd: FileDescriptor, length: Long)
+
+    /*
+     * Returns the ID of the storage volume that contains the file,
+     * or -1 if it can't be determined
+     */
+    fun getVolumeId(fd: FileDescriptor): Long
+
+    /*
+     * Flushes the file data to the storage, like sync(), but
+     * without the metadata that isn't needed to read the data back
+     */
+    @Throws(IOException::class)
+    fun syncData(fd: FileDescriptor)
+
+    /*
+     * Private directory for the resume journals of downloads
+     */
+    val journalDir: File
     fun closeQuietly(closeable: Closeable?)
     fun makeFilename(
         dir: Uri, desiredFileName: String
     ): String?
 
+    /*
+     * Also treats the given names as taken, e.g. the names
+     * of the downloads whose files haven't been created yet
+     */
+    fun makeFilename(
+        dir: Uri, desiredFileName: String, takenNames: Collection<String>
+    ): String?
+
+    /*
+     * Renames the file if the source and the destination are on the same file
+     * system, otherwise copies it and deletes the source
+     */
     @Throws(IOException::class, FileAlreadyExistsException::class)
     fun moveFile(
         srcDir: Uri, srcFileName: String, destDir: Uri, destFileName: String, replace: Boolean
-    )
+    ): MoveMethod
 
     @Throws(IOException::class)
     fun copyFile(
@@ -66,6 +104,12 @@ interface FileSystemFacade {
     fun getDirName(dir: Uri): String?
     fun getFileSize(filePath: Uri): Long
 
+    /*
+     * Returns the time of the last modification of the file in ms,
+     * or 0 if the file doesn't exist or the time is unknown
+     */
+    fun getLastModified(filePath: Uri): Long
+
     @Throws(IOException::class)
     fun truncate(filePath: Uri, newSize: Long)
     fun takePermissions(path: Uri)
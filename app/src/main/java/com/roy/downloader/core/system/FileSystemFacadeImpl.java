@@ -11,6 +11,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.roy.downloader.core.exception.FileAlreadyExistsException;
+import com.roy.downloader.core.model.data.entity.DownloadInfo;
 import com.roy.downloader.core.utils.MimeTypeUtils;
 
 import java.io.Closeable;
@@ -24,6 +25,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.UUID;
 
 class FileSystemFacadeImpl implements FileSystemFacade {
@@ -34,6 +37,7 @@ class FileSystemFacadeImpl implements FileSystemFacade {
     /* The file copy buffer size (30 MB) */
     private static final long FILE_COPY_BUFFER_SIZE = 1024 * 1024 * 30;
     private static final int COPY_BUF_SIZE = 8024;
+    private static final String JOURNAL_DIR_NAME = "journal";
 
     private final SysCall sysCall;
     private final FsModuleResolver fsResolver;
@@ -72,6 +76,26 @@ class FileSystemFacadeImpl implements FileSystemFacade {
         sysCall.fallocate(fd, length);
     }
 
+    @Override
+    public long getVolumeId(@NonNull FileDescriptor fd) {
+        try {
+            return sysCall.deviceId(fd);
+
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void syncData(@NonNull FileDescriptor fd) throws IOException {
+        try {
+            sysCall.fdatasync(fd);
+
+        } catch (IOException e) {
+            fd.sync();
+        }
+    }
+
     @Override
     public void closeQuietly(Closeable closeable) {
         try {
@@ -91,18 +115,21 @@ class FileSystemFacadeImpl implements FileSystemFacade {
      * otherwise returns original filename
      */
 
+    @Override
     public String makeFilename(@NonNull Uri dir,
                                @NonNull String desiredFileName) {
+        return makeFilename(dir, desiredFileName, Collections.emptySet());
+    }
+
+    @Override
+    public String makeFilename(@NonNull Uri dir,
+                               @NonNull String desiredFileName,
+                               @NonNull Collection<String> takenNames) {
         while (true) {
             /* File doesn't exists, return */
-            Uri filePath = getFileUri(dir, desiredFileName);
-            if (filePath == null)
-                return desiredFileName;
-
-            FsModule fsModule = fsResolver.resolveFsByUri(filePath);
-            String fileName = fsModule.getName(filePath);
+            String fileName = getTakenName(dir, desiredFileName, takenNames);
             if (fileName == null)
-                fileName = desiredFileName;
+                return desiredFileName;
 
             int openBracketPos = fileName.lastIndexOf("(");
             int closeBracketPos = fileName.lastIndexOf(")");
@@ -136,35 +163,67 @@ class FileSystemFacadeImpl implements FileSystemFacade {
         }
     }
 
+    /*
+     * Returns the name of the file that takes the desired name, or null if the name is free.
+     * The .part file of an unfinished download also takes the name (see DownloadInfo)
+     */
+
+    private String getTakenName(Uri dir, String desiredFileName, Collection<String> takenNames) {
+        Uri filePath = getFileUri(dir, desiredFileName);
+        if (filePath != null) {
+            FsModule fsModule = fsResolver.resolveFsByUri(filePath);
+            String fileName = fsModule.getName(filePath);
+
+            return (fileName == null ? desiredFileName : fileName);
+        }
+        if (takenNames.contains(desiredFileName) ||
+                getFileUri(dir, desiredFileName + DownloadInfo.PART_FILE_EXTENSION) != null)
+            return desiredFileName;
+
+        return null;
+    }
+
     /*
      * Returns Uri and name of moved file.
      */
 
     @Override
-    public void moveFile(@NonNull Uri srcDir,
-                         @NonNull String srcFileName,
-                         @NonNull Uri destDir,
-                         @NonNull String destFileName,
-                         boolean replace) throws IOException, FileAlreadyExistsException {
-        FsModule fsModule;
+    public MoveMethod moveFile(@NonNull Uri srcDir,
+                               @NonNull String srcFileName,
+                               @NonNull Uri destDir,
+                               @NonNull String destFileName,
+                               boolean replace) throws IOException, FileAlreadyExistsException {
+        FsModule srcModule, destModule;
         Uri srcFileUri, destFileUri;
 
-        fsModule = fsResolver.resolveFsByUri(srcDir);
-        srcFileUri = fsModule.getFileUri(srcDir, srcFileName, false);
+        srcModule = fsResolver.resolveFsByUri(srcDir);
+        srcFileUri = srcModule.getFileUri(srcDir, srcFileName, false);
         if (srcFileUri == null)
             throw new FileNotFoundException("Source '" + srcFileName + "' from " + srcDir + " does not exists");
 
-        fsModule = fsResolver.resolveFsByUri(destDir);
-        destFileUri = fsModule.getFileUri(destDir, destFileName, replace);
+        destModule = fsResolver.resolveFsByUri(destDir);
+        destFileUri = destModule.getFileUri(destDir, destFileName, false);
         if (!replace && destFileUri != null)
             throw new FileAlreadyExistsException("Destination '" + destFileUri + "' already exists");
+        if (srcFileUri.equals(destFileUri))
+            return MoveMethod.RENAME;
+
+        if (srcModule == destModule) {
+            if (destFileUri != null && !destModule.delete(destFileUri))
+                throw new IOException("Cannot replace destination file '" + destFileUri + "'");
+            if (srcModule.rename(srcDir, srcFileName, destDir, destFileName) != null)
+                return MoveMethod.RENAME;
+        }
 
-        destFileUri = createFile(destDir, destFileName, false);
+        /* Different file systems or the rename isn't supported */
+        destFileUri = createFile(destDir, destFileName, replace);
         if (destFileUri == null)
             throw new IOException("Cannot create destination file '" + destFileName + "'");
 
-        copyFile(srcFileUri, destFileUri, replace);
+        copyFile(srcFileUri, destFileUri, true);
         deleteFile(srcFileUri);
+
+        return MoveMethod.COPY;
     }
 
     /*
@@ -516,6 +575,13 @@ class FileSystemFacadeImpl implements FileSystemFacade {
         return fsModule.getFileSize(filePath);
     }
 
+    @Override
+    public long getLastModified(@NonNull Uri filePath) {
+        FsModule fsModule = fsResolver.resolveFsByUri(filePath);
+
+        return fsModule.getLastModified(filePath);
+    }
+
     @Override
     public void truncate(@NonNull Uri filePath, long newSize) throws IOException {
         try (FileDescriptorWrapper w = getFD(filePath)) {
@@ -560,6 +626,12 @@ class FileSystemFacadeImpl implements FileSystemFacade {
         return File.createTempFile(UUID.randomUUID().toString(), suffix, appContext.getCacheDir());
     }
 
+    @NonNull
+    @Override
+    public File getJournalDir() {
+        return new File(appContext.getFilesDir(), JOURNAL_DIR_NAME);
+    }
+
     /*
      * Copies the content of a InputStream into an OutputStream.
      * Uses a default buffer size of 8024 bytes.
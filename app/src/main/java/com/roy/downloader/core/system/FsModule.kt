@@ -31,6 +31,16 @@ internal interface FsModule {
 
     @Throws(FileNotFoundException::class)
     fun delete(filePath: Uri): Boolean
+
+    /*
+     * Moves the file to another directory of the same file system and/or renames it,
+     * without copying the data. The destination file must not exist. Returns Uri of
+     * the moved file or null if it can't be done this way, e.g. the directories
+     * are on different volumes or the provider doesn't support moving.
+     * Throws IOException if the file was moved, but the move can't be finished or undone
+     */
+    @Throws(IOException::class)
+    fun rename(srcDir: Uri, srcFileName: String, destDir: Uri, destFileName: String): Uri?
     fun exists(filePath: Uri): Boolean
     fun openFD(path: Uri): FileDescriptorWrapper?
 
@@ -41,6 +51,12 @@ internal interface FsModule {
     @Throws(IOException::class)
     fun getDirAvailableBytes(dir: Uri): Long
     fun getFileSize(filePath: Uri): Long
+
+    /*
+     * Returns the time of the last modification of the file in ms,
+     * or 0 if the file doesn't exist or the time is unknown
+     */
+    fun getLastModified(filePath: Uri): Long
     fun takePermissions(path: Uri)
 
     /*
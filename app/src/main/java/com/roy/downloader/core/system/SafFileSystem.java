@@ -3,6 +3,7 @@ package com.roy.downloader.core.system;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.net.Uri;
+import android.os.Build;
 import android.os.ParcelFileDescriptor;
 import android.provider.DocumentsContract;
 import android.text.TextUtils;
@@ -15,6 +16,7 @@ import androidx.documentfile.provider.DocumentFile;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 
 /*
  * A class that representing a wrapper around SAF (Storage Access Framework) for
@@ -275,6 +277,76 @@ public class SafFileSystem {
         return DocumentsContract.deleteDocument(appContext.getContentResolver(), filePath);
     }
 
+    /*
+     * Moves the file to another directory and/or renames it, without copying the data.
+     * The destination file must not exist. Returns Uri of the moved file or null if
+     * the provider doesn't support it. Moving between directories requires API 24.
+     * Throws IOException if the file was moved, but can't be renamed or moved back
+     */
+
+    @Nullable
+    public Uri rename(@NonNull Uri srcDir, @NonNull String srcFileName,
+                      @NonNull Uri destDir, @NonNull String destFileName) throws IOException {
+        boolean sameDir = srcDir.equals(destDir);
+        if (!sameDir && Build.VERSION.SDK_INT < Build.VERSION_CODES.N)
+            return null;
+        Uri srcFile = getFileUri(srcDir, srcFileName, false);
+        if (srcFile == null)
+            return null;
+
+        ContentResolver cr = appContext.getContentResolver();
+        Uri file = srcFile;
+        if (!sameDir) {
+            try {
+                file = DocumentsContract.moveDocument(cr, srcFile,
+                        makeSafRootDir(srcDir), makeSafRootDir(destDir));
+
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to move " + srcFile + ": " + e);
+                file = null;
+            }
+            if (file == null)
+                return null;
+        }
+        if (!srcFileName.equals(destFileName)) {
+            Uri renamed;
+            try {
+                renamed = DocumentsContract.renameDocument(cr, file, destFileName);
+
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to rename " + file + ": " + e);
+                renamed = null;
+            }
+            if (renamed == null && !sameDir) {
+                /* Put the file back, so that it can be copied */
+                try {
+                    if (DocumentsContract.moveDocument(cr, file,
+                            makeSafRootDir(destDir), makeSafRootDir(srcDir)) == null)
+                        throw new IllegalStateException("Provider returned null");
+
+                } catch (Exception e) {
+                    evict(srcDir, srcFileName, srcFile);
+                    evict(destDir, srcFileName, null);
+                    throw new IOException("Unable to rename '" + srcFileName + "' to '" +
+                            destFileName + "', the file is now " + file, e);
+                }
+            }
+            file = renamed;
+        }
+        if (file != null) {
+            evict(srcDir, srcFileName, srcFile);
+            evict(destDir, destFileName, null);
+        }
+
+        return file;
+    }
+
+    private void evict(Uri dir, String fileName, Uri filePath) {
+        CACHE.remove(dir + File.separator + fileName);
+        if (filePath != null)
+            CACHE.remove(filePath.toString());
+    }
+
     /*
      * Returns true if the file is exists
      */
@@ -36,6 +36,12 @@ internal class SafFsModule(private val appContext: Context) : FsModule {
         return fs.delete(filePath)
     }
 
+    @Throws(IOException::class)
+    override fun rename(srcDir: Uri, srcFileName: String, destDir: Uri, destFileName: String): Uri? {
+        val fs = SafFileSystem.getInstance(appContext)
+        return fs.rename(srcDir, srcFileName, destDir, destFileName)
+    }
+
     override fun exists(filePath: Uri): Boolean {
         val fs = SafFileSystem.getInstance(appContext)
         return fs.exists(filePath)
@@ -64,6 +70,12 @@ internal class SafFsModule(private val appContext: Context) : FsModule {
         return stat?.length ?: -1
     }
 
+    override fun getLastModified(filePath: Uri): Long {
+        val fs = SafFileSystem.getInstance(appContext)
+        val stat = fs.stat(filePath)
+        return stat?.lastModified ?: 0
+    }
+
     override fun takePermissions(path: Uri) {
         val resolver = appContext.contentResolver
         val takeFlags = Intent.FLAG_GRANT_READ_URI_PERMISSION or
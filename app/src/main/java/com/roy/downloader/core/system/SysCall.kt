@@ -15,4 +15,10 @@ internal interface SysCall {
 
     @Throws(IOException::class)
     fun availableBytes(fd: FileDescriptor): Long
+
+    @Throws(IOException::class)
+    fun deviceId(fd: FileDescriptor): Long
+
+    @Throws(IOException::class)
+    fun fdatasync(fd: FileDescriptor)
 }
@@ -50,4 +50,29 @@ internal class SysCallImpl : SysCall {
             throw IOException(e)
         }
     }
+
+    /*
+     * Return the ID of the device containing the file
+     * backing the given FileDescriptor
+     */
+    @Throws(IOException::class)
+    override fun deviceId(fd: FileDescriptor): Long {
+        return try {
+            Os.fstat(fd).st_dev
+        } catch (e: Exception) {
+            throw IOException(e)
+        }
+    }
+
+    /*
+     * Flush the file data without the metadata that isn't needed to read it back
+     */
+    @Throws(IOException::class)
+    override fun fdatasync(fd: FileDescriptor) {
+        try {
+            Os.fdatasync(fd)
+        } catch (e: Exception) {
+            throw IOException(e)
+        }
+    }
 }
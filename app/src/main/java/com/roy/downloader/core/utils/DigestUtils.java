@@ -2,12 +2,20 @@ package com.roy.downloader.core.utils;
 
 import androidx.annotation.NonNull;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /*
@@ -15,29 +23,130 @@ import java.util.regex.Pattern;
  */
 
 public class DigestUtils {
-    private static final String MD5_PATTERN = "[A-Fa-f0-9]{32}";
-    private static final String SHA256_PATTERN = "[A-Fa-f0-9]{64}";
-    private static final int STREAM_BUFFER_LENGTH = 1024;
+    public static final String MD5 = "MD5";
+    public static final String SHA1 = "SHA-1";
+    public static final String SHA256 = "SHA-256";
+    public static final String SHA512 = "SHA-512";
+
+    private static final Pattern MD5_PATTERN = Pattern.compile("[A-Fa-f0-9]{32}");
+    private static final Pattern SHA256_PATTERN = Pattern.compile("[A-Fa-f0-9]{64}");
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+    /* The file is read into one buffer while the other one is being hashed */
+    private static final int FILE_BUFFER_LENGTH = 1024 * 1024;
+    private static final int NUM_FILE_BUFFERS = 2;
+    private static final int NUM_DIGEST_THREADS = 4;
+    private static final long KEEP_ALIVE_TIME = 30; /* sec */
+
+    /* Shared by all callers; the threads are released after a timeout */
+    private static final ThreadPoolExecutor digestExecutor;
+
+    static {
+        digestExecutor = new ThreadPoolExecutor(NUM_DIGEST_THREADS, NUM_DIGEST_THREADS,
+                KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                (r) -> new Thread(r, "DigestUtils"));
+        digestExecutor.allowCoreThreadTimeOut(true);
+    }
 
     public static String makeSha256Hash(@NonNull FileInputStream is) {
-        try (BufferedInputStream bufIs = new BufferedInputStream(is)) {
-            return makeHash("SHA-256", bufIs);
-        } catch (IOException e) {
-            return null;
-        }
+        return makeHash(is, SHA256);
     }
 
     public static String makeMd5Hash(@NonNull FileInputStream is) {
-        try (BufferedInputStream bufIs = new BufferedInputStream(is)) {
-            return makeHash("MD5", bufIs);
+        return makeHash(is, MD5);
+    }
+
+    public static String makeHash(@NonNull FileInputStream is, @NonNull String algorithm) {
+        String[] hashes = makeHashes(is, algorithm);
+
+        return (hashes == null ? null : hashes[0]);
+    }
+
+    /*
+     * Computes the digests of the given algorithms (see MessageDigest) in one pass
+     * over the file. Returns the hashes in the order of the algorithms, or null
+     * if the file can't be read. The stream isn't closed.
+     *
+     * The calling thread reads the file by large blocks, each digest is updated in its
+     * own thread, so reading the next block overlaps with hashing the previous one
+     */
+
+    public static String[] makeHashes(@NonNull FileInputStream is, @NonNull String... algorithms) {
+        MessageDigest[] digests = new MessageDigest[algorithms.length];
+        try {
+            for (int i = 0; i < algorithms.length; i++)
+                digests[i] = MessageDigest.getInstance(algorithms[i]);
+
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+
+        byte[][] buffers = new byte[NUM_FILE_BUFFERS][FILE_BUFFER_LENGTH];
+        List<Future<?>> inFlight = Collections.emptyList();
+        try {
+            int cur = 0;
+            int read;
+            while ((read = readFully(is, buffers[cur])) > 0) {
+                /* The digests must take the blocks in order */
+                awaitDigests(inFlight);
+                inFlight = submitDigests(digests, buffers[cur], read);
+                cur = (cur + 1) % NUM_FILE_BUFFERS;
+            }
+            awaitDigests(inFlight);
+
         } catch (IOException e) {
             return null;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+
+        } finally {
+            for (Future<?> f : inFlight)
+                f.cancel(false);
+        }
+
+        String[] hashes = new String[digests.length];
+        for (int i = 0; i < digests.length; i++)
+            hashes[i] = digestToString(digests[i].digest());
+
+        return hashes;
+    }
+
+    private static int readFully(InputStream is, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int read = is.read(buffer, total, buffer.length - total);
+            if (read < 0)
+                break;
+            total += read;
+        }
+
+        return total;
+    }
+
+    private static List<Future<?>> submitDigests(MessageDigest[] digests, byte[] buffer, int len) {
+        List<Future<?>> futures = new ArrayList<>(digests.length);
+        for (MessageDigest digest : digests)
+            futures.add(digestExecutor.submit(() -> digest.update(buffer, 0, len)));
+
+        return futures;
+    }
+
+    private static void awaitDigests(List<Future<?>> futures) throws IOException, InterruptedException {
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
         }
     }
 
     public static String makeSha256Hash(@NonNull byte[] bytes) {
         try (ByteArrayInputStream is = new ByteArrayInputStream(bytes)) {
-            return makeHash("SHA-256", is);
+            return makeHash(SHA256, is);
         } catch (IOException e) {
             return null;
         }
@@ -45,7 +154,7 @@ public class DigestUtils {
 
     public static String makeMd5Hash(@NonNull byte[] bytes) {
         try (ByteArrayInputStream is = new ByteArrayInputStream(bytes)) {
-            return makeHash("MD5", is);
+            return makeHash(MD5, is);
         } catch (IOException e) {
             return null;
         }
@@ -74,7 +183,21 @@ public class DigestUtils {
         }
     }
 
-    private static String digestToString(byte[] digest) {
+    /*
+     * Returns the name of the digest algorithm that makes
+     * hashes like the given one, or null if unknown
+     */
+
+    public static String getAlgorithm(@NonNull String hash) {
+        if (isMd5Hash(hash))
+            return MD5;
+        else if (isSha256Hash(hash))
+            return SHA256;
+
+        return null;
+    }
+
+    public static String digestToString(@NonNull byte[] digest) {
         StringBuilder sha1 = new StringBuilder();
         for (byte b : digest) {
             if ((0xff & b) < 0x10)
@@ -86,10 +209,10 @@ public class DigestUtils {
     }
 
     public static boolean isMd5Hash(@NonNull String hash) {
-        return Pattern.compile(MD5_PATTERN).matcher(hash).matches();
+        return MD5_PATTERN.matcher(hash).matches();
     }
 
     public static boolean isSha256Hash(@NonNull String hash) {
-        return Pattern.compile(SHA256_PATTERN).matcher(hash).matches();
+        return SHA256_PATTERN.matcher(hash).matches();
     }
 }
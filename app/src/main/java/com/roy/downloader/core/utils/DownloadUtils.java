@@ -3,7 +3,10 @@ package com.roy.downloader.core.utils;
 import android.net.Uri;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.roy.downloader.core.model.data.StatusCode;
+import com.roy.downloader.core.model.data.entity.DownloadInfo;
 import com.roy.downloader.core.system.FileSystemFacade;
 
 import org.mozilla.universalchardet.UniversalDetector;
@@ -11,7 +14,11 @@ import org.mozilla.universalchardet.UniversalDetector;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -135,6 +142,39 @@ public class DownloadUtils {
 
     public static final String[] CONTENT_DISPOSITION_TYPES = new String[]{"attachment", "inline"};
 
+    /*
+     * Returns Uri of the file that holds the downloaded data: the .part file
+     * while the download isn't finished (see DownloadInfo.getPartFileName()),
+     * otherwise the file itself. Returns null if there is no such file
+     */
+
+    public static Uri getDataFileUri(@NonNull FileSystemFacade fs, @NonNull DownloadInfo info) {
+        Uri partPath = fs.getFileUri(info.dirPath, info.getPartFileName());
+
+        return (partPath != null ? partPath : fs.getFileUri(info.dirPath, info.fileName));
+    }
+
+    /*
+     * Returns the file names of the unfinished downloads in the directory, except the
+     * download with the given id or URL. Their files may not have been created yet
+     */
+
+    public static Set<String> getUnfinishedFileNames(@NonNull List<DownloadInfo> infoList,
+                                                     @NonNull Uri dirPath,
+                                                     @Nullable UUID exceptId,
+                                                     @Nullable String exceptUrl) {
+        Set<String> names = new HashSet<>();
+        for (DownloadInfo info : infoList) {
+            if (info.statusCode == StatusCode.STATUS_SUCCESS || !dirPath.equals(info.dirPath))
+                continue;
+            if (info.id.equals(exceptId) || info.url.equals(exceptUrl))
+                continue;
+            names.add(info.fileName);
+        }
+
+        return names;
+    }
+
     public static String getHttpFileName(@NonNull FileSystemFacade fs,
                                          @NonNull String decodedUrl,
                                          String contentDisposition,
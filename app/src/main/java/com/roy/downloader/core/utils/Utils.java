@@ -188,6 +188,19 @@ public class Utils {
         return netInfo != null && netInfo.isConnected() && isNetworkTypeAllowed(pref, systemFacade);
     }
 
+    /*
+     * Returns true if the device is still connected to the network of the given type.
+     * Otherwise a failed request says nothing about the server
+     */
+
+    public static boolean isSameNetwork(@NonNull SettingsRepository pref,
+                                        @NonNull SystemFacade systemFacade,
+                                        int networkType) {
+        NetworkInfo netInfo = systemFacade.getActiveNetworkInfo();
+
+        return netInfo != null && netInfo.getType() == networkType && checkConnectivity(pref, systemFacade);
+    }
+
     public static boolean isNetworkTypeAllowed(@NonNull SettingsRepository pref,
                                                @NonNull SystemFacade systemFacade) {
         boolean enableRoaming = pref.enableRoaming();
@@ -140,6 +140,12 @@ public class ActivityAddDownload extends AppCompatActivity
                     false
             );
         }
+        if (params.adaptiveConnections == null) {
+            params.adaptiveConnections = localPref.getBoolean(
+                    getString(R.string.add_download_adaptive_connections_flag),
+                    false
+            );
+        }
     }
 
     private String getUrlFromIntent() {
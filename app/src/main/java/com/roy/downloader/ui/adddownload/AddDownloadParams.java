@@ -30,6 +30,7 @@ public class AddDownloadParams extends BaseObservable {
     private boolean replaceFile;
     private String checksum;
     private boolean uncompressArchive;
+    private boolean adaptiveConnections;
 
     @Bindable
     public String getUrl() {
@@ -203,6 +204,16 @@ public class AddDownloadParams extends BaseObservable {
         notifyPropertyChanged(BR.uncompressArchive);
     }
 
+    @Bindable
+    public boolean isAdaptiveConnections() {
+        return adaptiveConnections;
+    }
+
+    public void setAdaptiveConnections(boolean adaptiveConnections) {
+        this.adaptiveConnections = adaptiveConnections;
+        notifyPropertyChanged(BR.adaptiveConnections);
+    }
+
     @NonNull
     @Override
     public String toString() {
@@ -225,6 +236,7 @@ public class AddDownloadParams extends BaseObservable {
                 ", replaceFile=" + replaceFile +
                 ", checksum='" + checksum + '\'' +
                 ", uncompressArchive=" + uncompressArchive +
+                ", adaptiveConnections=" + adaptiveConnections +
                 '}';
     }
 }
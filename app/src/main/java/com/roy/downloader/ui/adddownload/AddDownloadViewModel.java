@@ -20,6 +20,7 @@ import androidx.lifecycle.MutableLiveData;
 
 import com.roy.downloader.core.HttpConnection;
 import com.roy.downloader.core.RepositoryHelper;
+import com.roy.downloader.core.WarmConnections;
 import com.roy.downloader.core.exception.FreeSpaceException;
 import com.roy.downloader.core.exception.HttpException;
 import com.roy.downloader.core.exception.NormalizeUrlException;
@@ -46,8 +47,11 @@ import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
 
 import io.reactivex.Completable;
 import io.reactivex.disposables.CompositeDisposable;
@@ -57,6 +61,9 @@ public class AddDownloadViewModel extends AndroidViewModel {
     @SuppressWarnings("unused")
     private static final String TAG = AddDownloadViewModel.class.getSimpleName();
 
+    /* How long the fetched response is kept open while the user is choosing the options, ms */
+    private static final long WARM_CONNECTION_GRACE_TIME = 30 * 1000;
+
     private FetchLinkTask fetchTask;
     private final DataRepository repo;
     public SettingsRepository pref;
@@ -69,6 +76,11 @@ public class AddDownloadViewModel extends AndroidViewModel {
     public FileSystemFacade fs;
     private final CompositeDisposable disposables = new CompositeDisposable();
     public ObservableBoolean enableUncompressArchive = new ObservableBoolean();
+    /* The key of the fetched response in WarmConnections until the download is added */
+    private final UUID fetchId = UUID.randomUUID();
+    /* The request of the fetched response, it's only handed over to the download with the same one */
+    private volatile String fetchedUrl;
+    private volatile String fetchedUserAgent;
 
     public enum Status {
         UNKNOWN,
@@ -110,6 +122,7 @@ public class AddDownloadViewModel extends AndroidViewModel {
 
         disposables.clear();
         params.removeOnPropertyChangedCallback(paramsCallback);
+        releaseWarmConnection();
     }
 
     public void initParams(AddInitParams initParams) {
@@ -150,6 +163,9 @@ public class AddDownloadViewModel extends AndroidViewModel {
         params.setUncompressArchive(
                 initParams.uncompressArchive != null && initParams.uncompressArchive
         );
+        params.setAdaptiveConnections(
+                initParams.adaptiveConnections != null && initParams.adaptiveConnections
+        );
     }
 
     public LiveData<List<UserAgent>> observeUserAgents() {
@@ -234,35 +250,50 @@ public class AddDownloadViewModel extends AndroidViewModel {
                     return e;
                 }
                 connection.setTimeout(viewModel.get().pref.timeout());
+                connection.setKeepAlive(viewModel.get().pref.connectionReuse());
                 connection.setReferer(
                         params[1] == null && connectWithReferer[0] ?
                                 params[0] :
                                 params[1]
                 );
-                connection.contentRangeLength(true);
 
                 NetworkInfo netInfo = viewModel.get().systemFacade.getActiveNetworkInfo();
                 if (netInfo == null || !netInfo.isConnected())
                     return new ConnectException("Network is disconnected");
 
                 connection.setListener(new HttpConnection.Listener() {
+                    private boolean movedPermanently = true;
+                    private String userAgent;
+
                     @Override
                     public void onConnectionCreated(HttpURLConnection conn) {
-                        String userAgent = viewModel.get().params.getUserAgent();
+                        userAgent = viewModel.get().params.getUserAgent();
                         if (conn.getRequestProperty("User-Agent") == null && !TextUtils.isEmpty(userAgent)) {
                             conn.addRequestProperty("User-Agent", userAgent);
                         }
+                        /*
+                         * Verifies range support, and the body starts at the first byte
+                         * either way, so that the first piece can continue reading it
+                         */
+                        conn.setRequestProperty("Range", "bytes=0-");
                     }
 
                     @Override
                     public void onResponseHandle(HttpURLConnection conn, int code, String message) {
-                        if (viewModel.get() == null)
+                        AddDownloadViewModel model = viewModel.get();
+                        if (model == null)
                             return;
 
                         if (code == HttpURLConnection.HTTP_OK ||
                                 code == HttpURLConnection.HTTP_PARTIAL) {
-                            connectWithReferer[0] = viewModel.get()
-                                    .parseOkHeaders(conn, connectWithReferer[0]);
+                            connectWithReferer[0] = model.parseOkHeaders(conn, code, connectWithReferer[0]);
+                            if (!connectWithReferer[0] && !isCancelled()) {
+                                connection.detach();
+                                model.fetchedUrl = model.params.getUrl();
+                                model.fetchedUserAgent = userAgent;
+                                WarmConnections.getInstance().put(model.fetchId, conn,
+                                        WARM_CONNECTION_GRACE_TIME);
+                            }
                         } else {
                             err[0] = new HttpException("Failed to fetch link, response code: " + code, code);
                         }
@@ -273,6 +304,13 @@ public class AddDownloadViewModel extends AndroidViewModel {
                         if (viewModel.get() == null)
                             return;
 
+                        /*
+                         * A temporary target may expire, so keep the URL before it;
+                         * the engine follows the rest of the chain via the redirect cache
+                         */
+                        movedPermanently &= permanently;
+                        if (!movedPermanently)
+                            return;
                         try {
                             viewModel.get().params.setUrl(NormalizeUrl.normalize(newUrl));
 
@@ -312,7 +350,7 @@ public class AddDownloadViewModel extends AndroidViewModel {
         }
     }
 
-    private boolean parseOkHeaders(HttpURLConnection conn, boolean needsRefererPrevValue) {
+    private boolean parseOkHeaders(HttpURLConnection conn, int code, boolean needsRefererPrevValue) {
         String contentDisposition = conn.getHeaderField("Content-Disposition");
         String contentLocation = conn.getHeaderField("Content-Location");
         String tmpUrl = conn.getURL().toString();
@@ -370,10 +408,8 @@ public class AddDownloadViewModel extends AndroidViewModel {
             );
             params.setTotalBytes(bytes);
         }
-        params.setPartialSupport(
-                "bytes".equalsIgnoreCase(conn.getHeaderField("Accept-Ranges")) ||
-                        conn.getHeaderField("Content-Range") != null
-        );
+        /* The server either honours the requested range or ignores it */
+        params.setPartialSupport(code == HttpURLConnection.HTTP_PARTIAL);
 
         /* The number of pieces can't be more than the number of bytes */
         long total = params.getTotalBytes();
@@ -414,6 +450,7 @@ public class AddDownloadViewModel extends AndroidViewModel {
                     repo.replaceInfoByUrl(info, headers);
                 else
                     repo.addInfo(info, headers);
+                handOverWarmConnection(info);
             });
             t.start();
             t.join();
@@ -425,6 +462,23 @@ public class AddDownloadViewModel extends AndroidViewModel {
         engine.runDownload(info);
     }
 
+    /*
+     * The first piece continues reading the fetched response
+     */
+
+    private void handOverWarmConnection(DownloadInfo info) {
+        HttpURLConnection warmConn = WarmConnections.getInstance().take(fetchId);
+        if (warmConn == null)
+            return;
+
+        /* The link or the user agent may have been changed after the fetch */
+        if (info.hasMetadata && TextUtils.equals(info.url, fetchedUrl) &&
+                TextUtils.equals(info.userAgent, fetchedUserAgent))
+            WarmConnections.getInstance().put(info.id, warmConn);
+        else
+            warmConn.disconnect();
+    }
+
     private DownloadInfo makeDownloadInfo(Uri dirPath) throws NormalizeUrlException {
         FetchState state = fetchState.getValue();
 
@@ -444,7 +498,8 @@ public class AddDownloadViewModel extends AndroidViewModel {
             assert fileName != null;
             fileName = fs.appendExtension(fileName, mimeType);
         }
-        if (filePath != null && params.isReplaceFile()) {
+        Set<String> takenNames = getUnfinishedFileNames(dirPath, url);
+        if (filePath != null && params.isReplaceFile() && !takenNames.contains(fileName)) {
             try {
                 fs.truncate(filePath, 0);
             } catch (IOException e) {
@@ -452,7 +507,7 @@ public class AddDownloadViewModel extends AndroidViewModel {
             }
         } else {
             assert fileName != null;
-            fileName = fs.makeFilename(params.getDirPath(), fileName);
+            fileName = fs.makeFilename(params.getDirPath(), fileName, takenNames);
         }
 
         assert fileName != null;
@@ -468,6 +523,7 @@ public class AddDownloadViewModel extends AndroidViewModel {
         info.retry = params.isRetry();
         info.userAgent = params.getUserAgent();
         info.uncompressArchive = params.isUncompressArchive();
+        info.adaptiveConnections = params.isAdaptiveConnections() && info.getNumPieces() > 1;
 
         String checksum = params.getChecksum();
         if (isChecksumValid(checksum))
@@ -481,6 +537,27 @@ public class AddDownloadViewModel extends AndroidViewModel {
         return info;
     }
 
+    /*
+     * Returns the names of the unfinished downloads in the directory, since their files
+     * may not exist yet. The download that is replaced by the new one isn't counted
+     */
+
+    private Set<String> getUnfinishedFileNames(Uri dirPath, String url) {
+        String exceptUrl = (pref.replaceDuplicateDownloads() ? url : null);
+        List<DownloadInfo> infoList = new ArrayList<>();
+        /* Sync wait, the database can't be accessed from the main thread */
+        try {
+            Thread t = new Thread(() -> infoList.addAll(repo.getAllInfo()));
+            t.start();
+            t.join();
+
+        } catch (InterruptedException e) {
+            return Collections.emptySet();
+        }
+
+        return DownloadUtils.getUnfinishedFileNames(infoList, dirPath, null, exceptUrl);
+    }
+
     private boolean checkFreeSpace() {
         long storageFreeSpace = params.getStorageFreeSpace();
 
@@ -515,5 +592,16 @@ public class AddDownloadViewModel extends AndroidViewModel {
     public void finish() {
         if (fetchTask != null)
             fetchTask.cancel(true);
+        releaseWarmConnection();
+    }
+
+    /*
+     * Closing the connection may do network I/O
+     */
+
+    private void releaseWarmConnection() {
+        Completable.fromAction(() -> WarmConnections.getInstance().remove(fetchId))
+                .subscribeOn(Schedulers.io())
+                .subscribe();
     }
 }
@@ -23,6 +23,8 @@ public class AddInitParams implements Parcelable {
     public Integer numPieces;
     @Nullable
     public Boolean uncompressArchive;
+    @Nullable
+    public Boolean adaptiveConnections;
 
     public AddInitParams() {
     }
@@ -53,6 +55,10 @@ public class AddInitParams implements Parcelable {
         if (uncompressArchiveVal != -1) {
             uncompressArchive = uncompressArchiveVal > 0;
         }
+        byte adaptiveConnectionsVal = source.readByte();
+        if (adaptiveConnectionsVal != -1) {
+            adaptiveConnections = adaptiveConnectionsVal > 0;
+        }
     }
 
     @Override
@@ -92,6 +98,11 @@ public class AddInitParams implements Parcelable {
         } else {
             dest.writeByte((byte) (uncompressArchive ? 1 : 0));
         }
+        if (adaptiveConnections == null) {
+            dest.writeByte((byte) -1);
+        } else {
+            dest.writeByte((byte) (adaptiveConnections ? 1 : 0));
+        }
     }
 
     public static final Parcelable.Creator<AddInitParams> CREATOR =
@@ -121,6 +132,7 @@ public class AddInitParams implements Parcelable {
                 ", replaceFile=" + replaceFile +
                 ", numPieces=" + numPieces +
                 ", uncompressArchive=" + uncompressArchive +
+                ", adaptiveConnections=" + adaptiveConnections +
                 '}';
     }
 }
@@ -263,6 +263,10 @@ public class DialogAddDownload extends DialogFragment {
                         .putBoolean(getString(R.string.add_download_uncompress_archive_flag),
                                 viewModel.params.isUncompressArchive())
                         .apply();
+                case BR.adaptiveConnections -> localPref.edit()
+                        .putBoolean(getString(R.string.add_download_adaptive_connections_flag),
+                                viewModel.params.isAdaptiveConnections())
+                        .apply();
             }
         }
     };
@@ -10,6 +10,7 @@ import com.roy.downloader.core.model.data.entity.DownloadInfo;
 public class DownloadDetailsInfo extends BaseObservable {
     private DownloadInfo downloadInfo;
     private long downloadedBytes = -1;
+    private int connections;
     private String dirName;
     private String md5Hash;
     private String sha256Hash;
@@ -33,6 +34,16 @@ public class DownloadDetailsInfo extends BaseObservable {
         notifyPropertyChanged(BR.downloadInfo);
     }
 
+    @Bindable
+    public int getConnections() {
+        return connections;
+    }
+
+    public void setConnections(int connections) {
+        this.connections = connections;
+        notifyPropertyChanged(BR.connections);
+    }
+
     @Bindable
     public long getDownloadedBytes() {
         return downloadedBytes;
@@ -109,6 +120,7 @@ public class DownloadDetailsInfo extends BaseObservable {
         return "DownloadDetailsInfo{" +
                 "downloadInfo=" + downloadInfo +
                 ", downloadedBytes=" + downloadedBytes +
+                ", connections=" + connections +
                 ", dirName='" + dirName + '\'' +
                 ", md5Hash='" + md5Hash + '\'' +
                 ", sha256Hash='" + sha256Hash + '\'' +
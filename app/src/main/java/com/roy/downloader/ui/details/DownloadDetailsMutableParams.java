@@ -15,6 +15,9 @@ public class DownloadDetailsMutableParams extends BaseObservable {
     private boolean unmeteredConnectionsOnly = false;
     private boolean retry = false;
     private String checksum;
+    private boolean highPriority = false;
+    /* In KiB/s */
+    private String speedLimit;
 
     @Bindable
     public String getUrl() {
@@ -86,6 +89,26 @@ public class DownloadDetailsMutableParams extends BaseObservable {
         notifyPropertyChanged(BR.checksum);
     }
 
+    @Bindable
+    public boolean isHighPriority() {
+        return highPriority;
+    }
+
+    public void setHighPriority(boolean highPriority) {
+        this.highPriority = highPriority;
+        notifyPropertyChanged(BR.highPriority);
+    }
+
+    @Bindable
+    public String getSpeedLimit() {
+        return speedLimit;
+    }
+
+    public void setSpeedLimit(String speedLimit) {
+        this.speedLimit = speedLimit;
+        notifyPropertyChanged(BR.speedLimit);
+    }
+
     @NonNull
     @Override
     public String toString() {
@@ -97,6 +120,8 @@ public class DownloadDetailsMutableParams extends BaseObservable {
                 ", unmeteredConnectionsOnly=" + unmeteredConnectionsOnly +
                 ", retry=" + retry +
                 ", checksum='" + checksum + '\'' +
+                ", highPriority=" + highPriority +
+                ", speedLimit='" + speedLimit + '\'' +
                 '}';
     }
 }
@@ -17,17 +17,15 @@ import com.roy.downloader.core.exception.FreeSpaceException;
 import com.roy.downloader.core.model.ChangeableParams;
 import com.roy.downloader.core.model.DownloadEngine;
 import com.roy.downloader.core.model.data.entity.DownloadInfo;
-import com.roy.downloader.core.model.data.entity.DownloadPiece;
 import com.roy.downloader.core.model.data.entity.InfoAndPieces;
 import com.roy.downloader.core.storage.DataRepository;
-import com.roy.downloader.core.system.FileDescriptorWrapper;
 import com.roy.downloader.core.system.FileSystemFacade;
 import com.roy.downloader.core.system.SystemFacadeHelper;
 import com.roy.downloader.core.utils.DigestUtils;
 
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import io.reactivex.Completable;
@@ -66,17 +64,15 @@ public class DownloadDetailsViewModel extends AndroidViewModel {
     }
 
     public Flowable<InfoAndPieces> observeInfoAndPieces(UUID id) {
-        return repo.observeInfoAndPiecesById(id);
+        return engine.observeInfoAndPiecesById(id);
     }
 
     public void updateInfo(InfoAndPieces infoAndPieces) {
         boolean firstUpdate = info.getDownloadInfo() == null;
 
         info.setDownloadInfo(infoAndPieces.info);
-        long downloadedBytes = 0;
-        for (DownloadPiece piece : infoAndPieces.pieces)
-            downloadedBytes += infoAndPieces.info.getDownloadedBytes(piece);
-        info.setDownloadedBytes(downloadedBytes);
+        info.setDownloadedBytes(infoAndPieces.getDownloadedBytes());
+        info.setConnections(infoAndPieces.getConnections());
 
         if (firstUpdate)
             initMutableParams();
@@ -94,6 +90,8 @@ public class DownloadDetailsViewModel extends AndroidViewModel {
         mutableParams.setUnmeteredConnectionsOnly(downloadInfo.unmeteredConnectionsOnly);
         mutableParams.setRetry(downloadInfo.retry);
         mutableParams.setChecksum(downloadInfo.checksum);
+        mutableParams.setHighPriority(downloadInfo.priority == DownloadInfo.PRIORITY_HIGH);
+        mutableParams.setSpeedLimit(Integer.toString(downloadInfo.speedLimit));
     }
 
     private final Observable.OnPropertyChangedCallback mutableParamsCallback = new Observable.OnPropertyChangedCallback() {
@@ -115,55 +113,65 @@ public class DownloadDetailsViewModel extends AndroidViewModel {
     };
 
     public void calcMd5Hash() {
-        info.setMd5State(DownloadDetailsInfo.HashSumState.CALCULATION);
-
-        disposables.add(io.reactivex.Observable.fromCallable(() -> calcHashSum(false))
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe((md5Hash) -> {
-                            info.setMd5Hash(md5Hash);
-                            info.setMd5State(DownloadDetailsInfo.HashSumState.CALCULATED);
-                        },
-                        (Throwable t) -> {
-                            Log.e(TAG, "md5 calculation error: " +
-                                    Log.getStackTraceString(t));
-                            info.setMd5State(DownloadDetailsInfo.HashSumState.CALCULATED);
-                        }));
+        calcHashSums();
     }
 
     public void calcSha256Hash() {
-        info.setSha256State(DownloadDetailsInfo.HashSumState.CALCULATION);
+        calcHashSums();
+    }
+
+    /*
+     * Both hashes are computed in one pass over the file, unless one
+     * of them is already calculated or cached (see DownloadEngine)
+     */
 
-        disposables.add(io.reactivex.Observable.fromCallable(() -> calcHashSum(true))
+    private void calcHashSums() {
+        boolean md5 = info.getMd5State() == DownloadDetailsInfo.HashSumState.UNKNOWN;
+        boolean sha256 = info.getSha256State() == DownloadDetailsInfo.HashSumState.UNKNOWN;
+        if (!md5 && !sha256)
+            return;
+        if (md5)
+            info.setMd5State(DownloadDetailsInfo.HashSumState.CALCULATION);
+        if (sha256)
+            info.setSha256State(DownloadDetailsInfo.HashSumState.CALCULATION);
+
+        List<String> algorithms = new ArrayList<>(2);
+        if (md5)
+            algorithms.add(DigestUtils.MD5);
+        if (sha256)
+            algorithms.add(DigestUtils.SHA256);
+
+        disposables.add(io.reactivex.Observable.fromCallable(() -> calcHashSums(algorithms))
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe((sha256Hash) -> {
-                            info.setSha256Hash(sha256Hash);
-                            info.setSha256State(DownloadDetailsInfo.HashSumState.CALCULATED);
+                .subscribe((hashes) -> {
+                            for (int i = 0; i < algorithms.size(); i++)
+                                setHashSum(algorithms.get(i), hashes[i]);
                         },
                         (Throwable t) -> {
-                            Log.e(TAG, "sha256 calculation error: " +
+                            Log.e(TAG, "Hash calculation error: " +
                                     Log.getStackTraceString(t));
-                            info.setSha256State(DownloadDetailsInfo.HashSumState.CALCULATED);
+                            for (String algorithm : algorithms)
+                                setHashSum(algorithm, null);
                         }));
     }
 
-    private String calcHashSum(boolean sha256Hash) throws IOException {
+    private void setHashSum(String algorithm, String hash) {
+        if (DigestUtils.MD5.equals(algorithm)) {
+            info.setMd5Hash(hash);
+            info.setMd5State(DownloadDetailsInfo.HashSumState.CALCULATED);
+        } else {
+            info.setSha256Hash(hash);
+            info.setSha256State(DownloadDetailsInfo.HashSumState.CALCULATED);
+        }
+    }
+
+    private String[] calcHashSums(List<String> algorithms) throws IOException {
         DownloadInfo downloadInfo = info.getDownloadInfo();
         if (downloadInfo == null)
-            return null;
-
-        Uri filePath = fs.getFileUri(downloadInfo.dirPath, downloadInfo.fileName);
-        if (filePath == null)
-            return null;
+            return new String[algorithms.size()];
 
-        try (FileDescriptorWrapper w = fs.getFD(filePath)) {
-            assert w != null;
-            FileDescriptor outFd = w.open("r");
-            try (FileInputStream is = new FileInputStream(outFd)) {
-                return (sha256Hash ? DigestUtils.makeSha256Hash(is) : DigestUtils.makeMd5Hash(is));
-            }
-        }
+        return engine.getFileHashes(downloadInfo, algorithms.toArray(new String[0]));
     }
 
     public boolean applyChangedParams(boolean checkFileExists) throws FreeSpaceException, FileAlreadyExistsException {
@@ -195,6 +203,10 @@ public class DownloadDetailsViewModel extends AndroidViewModel {
         boolean unmeteredConnectionsOnly = mutableParams.isUnmeteredConnectionsOnly();
         boolean retry = mutableParams.isRetry();
         String checksum = mutableParams.getChecksum();
+        int priority = mutableParams.isHighPriority() ?
+                DownloadInfo.PRIORITY_HIGH :
+                DownloadInfo.PRIORITY_NORMAL;
+        int speedLimit = parseSpeedLimit(mutableParams.getSpeedLimit());
 
         if (!downloadInfo.url.equals(url))
             params.url = url;
@@ -211,10 +223,26 @@ public class DownloadDetailsViewModel extends AndroidViewModel {
         if (TextUtils.isEmpty(checksum) || isChecksumValid(checksum) &&
                 !checksum.equals(downloadInfo.checksum))
             params.checksum = checksum;
+        if (downloadInfo.priority != priority)
+            params.priority = priority;
+        if (downloadInfo.speedLimit != speedLimit)
+            params.speedLimit = speedLimit;
 
         return params;
     }
 
+    private int parseSpeedLimit(String speedLimit) {
+        if (TextUtils.isEmpty(speedLimit))
+            return 0;
+
+        try {
+            return Math.max(Integer.parseInt(speedLimit), 0);
+
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     public boolean isChecksumValid(String checksum) {
         if (checksum == null)
             return false;
@@ -14,6 +14,7 @@ public class DownloadItem extends InfoAndPieces {
     public DownloadItem(@NonNull InfoAndPieces infoAndPieces) {
         this.info = infoAndPieces.info;
         this.pieces = infoAndPieces.pieces;
+        this.liveProgress = infoAndPieces.liveProgress;
     }
 
     /*
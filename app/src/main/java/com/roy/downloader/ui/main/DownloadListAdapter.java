@@ -27,7 +27,6 @@ import androidx.vectordrawable.graphics.drawable.AnimatedVectorDrawableCompat;
 
 import com.roy.downloader.R;
 import com.roy.downloader.core.model.data.StatusCode;
-import com.roy.downloader.core.model.data.entity.DownloadPiece;
 import com.roy.downloader.core.utils.DateUtils;
 import com.roy.downloader.core.utils.MimeTypeUtils;
 import com.roy.downloader.core.utils.Utils;
@@ -191,15 +190,8 @@ public class DownloadListAdapter extends ListAdapter<DownloadItem, DownloadListA
             });
 
             Context context = itemView.getContext();
-            int size = item.pieces.size();
-            long downloadedBytes = 0;
-            long speed = 0;
-            if (size > 0) {
-                for (DownloadPiece piece : item.pieces) {
-                    downloadedBytes += item.info.getDownloadedBytes(piece);
-                    speed += piece.speed;
-                }
-            }
+            long downloadedBytes = item.getDownloadedBytes();
+            long speed = item.getSpeed();
             long ETA = Utils.calcETA(item.info.totalBytes, downloadedBytes, speed);
 
             if (item.info.statusCode == StatusCode.STATUS_RUNNING) {
@@ -52,7 +52,7 @@ public class DownloadsViewModel extends AndroidViewModel {
     }
 
     public Flowable<List<InfoAndPieces>> observerAllInfoAndPieces() {
-        return repo.observeAllInfoAndPieces();
+        return engine.observeAllInfoAndPieces();
     }
 
     public Single<List<InfoAndPieces>> getAllInfoAndPiecesSingle() {
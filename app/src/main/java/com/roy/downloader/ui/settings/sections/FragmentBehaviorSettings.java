@@ -8,6 +8,7 @@ import androidx.annotation.Keep;
 import androidx.fragment.app.FragmentManager;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.preference.EditTextPreference;
+import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.SeekBarPreference;
@@ -16,6 +17,7 @@ import androidx.preference.SwitchPreferenceCompat;
 import com.roy.downloader.R;
 import com.roy.downloader.core.InputFilterMinMax;
 import com.roy.downloader.core.RepositoryHelper;
+import com.roy.downloader.core.model.ProgressAggregator;
 import com.roy.downloader.core.settings.SettingsRepository;
 import com.roy.downloader.core.utils.Utils;
 import com.roy.downloader.ui.BaseAlertDialog;
@@ -123,6 +125,41 @@ public class FragmentBehaviorSettings extends PreferenceFragmentCompat implement
             bindOnPreferenceChangeListener(autoConnect);
         }
 
+        String keyConnectionReuse = getString(R.string.pref_key_connection_reuse);
+        SwitchPreferenceCompat connectionReuse = findPreference(keyConnectionReuse);
+        if (connectionReuse != null) {
+            connectionReuse.setChecked(pref.connectionReuse());
+            bindOnPreferenceChangeListener(connectionReuse);
+        }
+
+        String keyNioTransfer = getString(R.string.pref_key_nio_transfer);
+        SwitchPreferenceCompat nioTransfer = findPreference(keyNioTransfer);
+        if (nioTransfer != null) {
+            nioTransfer.setChecked(pref.nioTransfer());
+            bindOnPreferenceChangeListener(nioTransfer);
+        }
+
+        String keyHedgedRequests = getString(R.string.pref_key_hedged_requests);
+        SwitchPreferenceCompat hedgedRequests = findPreference(keyHedgedRequests);
+        if (hedgedRequests != null) {
+            hedgedRequests.setChecked(pref.hedgedRequests());
+            bindOnPreferenceChangeListener(hedgedRequests);
+        }
+
+        String keyBlockVerification = getString(R.string.pref_key_block_verification);
+        SwitchPreferenceCompat blockVerification = findPreference(keyBlockVerification);
+        if (blockVerification != null) {
+            blockVerification.setChecked(pref.blockVerification());
+            bindOnPreferenceChangeListener(blockVerification);
+        }
+
+        String keyStagingFiles = getString(R.string.pref_key_staging_files);
+        SwitchPreferenceCompat stagingFiles = findPreference(keyStagingFiles);
+        if (stagingFiles != null) {
+            stagingFiles.setChecked(pref.stagingFiles());
+            bindOnPreferenceChangeListener(stagingFiles);
+        }
+
         String keyTimeout = getString(R.string.pref_key_timeout);
         EditTextPreference timeout = findPreference(keyTimeout);
         if (timeout != null) {
@@ -133,6 +170,24 @@ public class FragmentBehaviorSettings extends PreferenceFragmentCompat implement
             timeout.setText(value);
             bindOnPreferenceChangeListener(timeout);
         }
+
+        String keyProgressFlushInterval = getString(R.string.pref_key_progress_flush_interval);
+        EditTextPreference progressFlushInterval = findPreference(keyProgressFlushInterval);
+        if (progressFlushInterval != null) {
+            progressFlushInterval.setDialogMessage(R.string.pref_progress_flush_interval_summary);
+            String value = Integer.toString(pref.progressFlushInterval());
+            progressFlushInterval.setOnBindEditTextListener((editText) -> editText.setFilters(new InputFilter[]{new InputFilterMinMax(1, Integer.MAX_VALUE)}));
+            progressFlushInterval.setSummary(value);
+            progressFlushInterval.setText(value);
+            bindOnPreferenceChangeListener(progressFlushInterval);
+        }
+
+        String keyDurability = getString(R.string.pref_key_durability);
+        ListPreference durability = findPreference(keyDurability);
+        if (durability != null) {
+            durability.setValueIndex(pref.durability());
+            bindOnPreferenceChangeListener(durability);
+        }
     }
 
     @Override
@@ -204,11 +259,35 @@ public class FragmentBehaviorSettings extends PreferenceFragmentCompat implement
         } else if (preference.getKey().equals(getString(R.string.pref_key_auto_connect))) {
             pref.autoConnect((boolean) newValue);
 
+        } else if (preference.getKey().equals(getString(R.string.pref_key_connection_reuse))) {
+            pref.connectionReuse((boolean) newValue);
+
+        } else if (preference.getKey().equals(getString(R.string.pref_key_nio_transfer))) {
+            pref.nioTransfer((boolean) newValue);
+
+        } else if (preference.getKey().equals(getString(R.string.pref_key_hedged_requests))) {
+            pref.hedgedRequests((boolean) newValue);
+
+        } else if (preference.getKey().equals(getString(R.string.pref_key_block_verification))) {
+            pref.blockVerification((boolean) newValue);
+
+        } else if (preference.getKey().equals(getString(R.string.pref_key_staging_files))) {
+            pref.stagingFiles((boolean) newValue);
+
         } else if (preference.getKey().equals(getString(R.string.pref_key_timeout))) {
             int value = 0;
             if (!TextUtils.isEmpty((String) newValue)) value = Integer.parseInt((String) newValue);
             pref.timeout(value);
             preference.setSummary(Integer.toString(value));
+
+        } else if (preference.getKey().equals(getString(R.string.pref_key_progress_flush_interval))) {
+            int value = ProgressAggregator.DEFAULT_FLUSH_INTERVAL;
+            if (!TextUtils.isEmpty((String) newValue)) value = Integer.parseInt((String) newValue);
+            pref.progressFlushInterval(value);
+            preference.setSummary(Integer.toString(value));
+
+        } else if (preference.getKey().equals(getString(R.string.pref_key_durability))) {
+            pref.durability(Integer.parseInt((String) newValue));
         }
 
         return true;
@@ -44,6 +44,28 @@ public class FragmentLimitationsSettings extends PreferenceFragmentCompat implem
             bindOnPreferenceChangeListener(maxActiveDownloads);
         }
 
+        String keyMaxConnections = getString(R.string.pref_key_max_connections);
+        EditTextPreference maxConnections = findPreference(keyMaxConnections);
+        if (maxConnections != null) {
+            String value = Integer.toString(pref.maxConnections());
+            maxConnections.setOnBindEditTextListener((editText) -> editText.setFilters(new InputFilter[]{new InputFilterMinMax(1, Integer.MAX_VALUE)}));
+            maxConnections.setSummary(value);
+            maxConnections.setText(value);
+            maxConnections.setDialogMessage(R.string.pref_max_connections_dialog_msg);
+            bindOnPreferenceChangeListener(maxConnections);
+        }
+
+        String keyMaxConnectionsPerHost = getString(R.string.pref_key_max_connections_per_host);
+        EditTextPreference maxConnectionsPerHost = findPreference(keyMaxConnectionsPerHost);
+        if (maxConnectionsPerHost != null) {
+            String value = Integer.toString(pref.maxConnectionsPerHost());
+            maxConnectionsPerHost.setOnBindEditTextListener((editText) -> editText.setFilters(new InputFilter[]{new InputFilterMinMax(1, Integer.MAX_VALUE)}));
+            maxConnectionsPerHost.setSummary(value);
+            maxConnectionsPerHost.setText(value);
+            maxConnectionsPerHost.setDialogMessage(R.string.pref_max_connections_per_host_dialog_msg);
+            bindOnPreferenceChangeListener(maxConnectionsPerHost);
+        }
+
         String keyMaxDownloadRetries = getString(R.string.pref_key_max_download_retries);
         EditTextPreference maxDownloadRetries = findPreference(keyMaxDownloadRetries);
         if (maxDownloadRetries != null) {
@@ -84,6 +106,18 @@ public class FragmentLimitationsSettings extends PreferenceFragmentCompat implem
             pref.maxActiveDownloads(value);
             preference.setSummary(Integer.toString(value));
 
+        } else if (preference.getKey().equals(getString(R.string.pref_key_max_connections))) {
+            int value = 1;
+            if (!TextUtils.isEmpty((String) newValue)) value = Integer.parseInt((String) newValue);
+            pref.maxConnections(value);
+            preference.setSummary(Integer.toString(value));
+
+        } else if (preference.getKey().equals(getString(R.string.pref_key_max_connections_per_host))) {
+            int value = 1;
+            if (!TextUtils.isEmpty((String) newValue)) value = Integer.parseInt((String) newValue);
+            pref.maxConnectionsPerHost(value);
+            preference.setSummary(Integer.toString(value));
+
         } else if (preference.getKey().equals(getString(R.string.pref_key_max_download_retries))) {
             int value = 0;
             if (!TextUtils.isEmpty((String) newValue)) value = Integer.parseInt((String) newValue);